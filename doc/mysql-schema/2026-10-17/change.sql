@@ -0,0 +1,40 @@
+DROP TABLE IF EXISTS schedule_node;
+CREATE TABLE IF NOT EXISTS schedule_node
+(
+    node_id        VARCHAR(200)  NOT NULL PRIMARY KEY COMMENT '调度节点标识',
+    heartbeat_time BIGINT(13)    NOT NULL DEFAULT '0' COMMENT '最近心跳时间'
+)
+    ENGINE = InnoDB
+    DEFAULT CHARSET = utf8mb4
+    COMMENT = '调度节点';
+
+DROP TABLE IF EXISTS schedule_partition;
+CREATE TABLE IF NOT EXISTS schedule_partition
+(
+    partition_id   INT           NOT NULL PRIMARY KEY COMMENT '分区编号(alarm id % 分区数)',
+    holder         VARCHAR(200)  NOT NULL DEFAULT '' COMMENT '租约持有节点',
+    lease_expire   BIGINT(13)    NOT NULL DEFAULT '0' COMMENT '租约过期时间',
+    fencing_token  BIGINT        NOT NULL DEFAULT '0' COMMENT '每次被抢占加1，校验写入方仍是当前持有者',
+    fired_until    BIGINT(13)    NOT NULL DEFAULT '0' COMMENT '持有者已经触发到的时间，之后的时间轮任务由接管者按trigger_last_time恢复'
+)
+    ENGINE = InnoDB
+    DEFAULT CHARSET = utf8mb4
+    COMMENT = '调度分区租约';
+
+ALTER TABLE alarm
+    ADD INDEX idx_modifyat (modify_at);
+
+ALTER TABLE alarm
+    ADD INDEX idx_triggernexttime (trigger_next_time);
+
+DROP TABLE IF EXISTS rule_state;
+CREATE TABLE IF NOT EXISTS rule_state
+(
+    alarm_id     BIGINT        NOT NULL PRIMARY KEY COMMENT '监控id',
+    state_value  MEDIUMTEXT    NOT NULL COMMENT '规则状态json',
+    version      BIGINT        NOT NULL DEFAULT '0' COMMENT '每次写入加1，节点据此发现其他节点写入的更新状态',
+    modify_at    DATETIME      NOT NULL COMMENT '修改时间'
+)
+    ENGINE = InnoDB
+    DEFAULT CHARSET = utf8mb4
+    COMMENT = '有状态规则的检查点';
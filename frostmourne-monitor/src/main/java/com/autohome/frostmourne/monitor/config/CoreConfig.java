@@ -15,6 +15,9 @@ import com.autohome.frostmourne.monitor.service.core.metric.jdbc.ClickhouseSameT
 import com.autohome.frostmourne.monitor.service.core.metric.jdbc.MysqlNumericMetric;
 import com.autohome.frostmourne.monitor.service.core.metric.jdbc.MysqlSameTimeMetric;
 import com.autohome.frostmourne.monitor.service.core.query.IInfluxdbDataQuery;
+import com.autohome.frostmourne.monitor.service.core.rule.AnomalyRule;
+import com.autohome.frostmourne.monitor.service.core.rule.AnomalyStateStore;
+import com.autohome.frostmourne.monitor.service.core.rule.ExpressionEvaluator;
 import com.autohome.frostmourne.monitor.service.core.rule.ExpressionRule;
 import com.autohome.frostmourne.monitor.service.core.rule.IRule;
 import com.autohome.frostmourne.monitor.service.core.rule.NumericRule;
@@ -30,6 +33,12 @@ public class CoreConfig {
     @Resource
     private ITemplateService templateService;
 
+    @Resource
+    private ExpressionEvaluator expressionEvaluator;
+
+    @Resource
+    private AnomalyStateStore anomalyStateStore;
+
     @Autowired
     private MysqlNumericMetric mysqlNumericMetric;
     @Autowired
@@ -45,6 +54,7 @@ public class CoreConfig {
         ruleMap.put("numeric", numericRule());
         ruleMap.put("expression", expressionRule());
         ruleMap.put("percentage", percentageRule());
+        ruleMap.put("anomaly", anomalyRule());
 
         return ruleMap;
     }
@@ -61,7 +71,12 @@ public class CoreConfig {
 
     @Bean
     public ExpressionRule expressionRule() {
-        return new ExpressionRule(templateService);
+        return new ExpressionRule(templateService, expressionEvaluator);
+    }
+
+    @Bean
+    public AnomalyRule anomalyRule() {
+        return new AnomalyRule(templateService, anomalyStateStore);
     }
 
     @Bean(name = "elasticsearchMetricMap")
@@ -69,6 +84,7 @@ public class CoreConfig {
         Map<String, IMetric> metricMap = new HashMap<>();
         metricMap.put("numeric", elasticsearchNumericMetric());
         metricMap.put("same_time", elasticsearchSameTimeMetric());
+        metricMap.put("anomaly", elasticsearchNumericMetric());
         return metricMap;
     }
 
@@ -90,8 +106,10 @@ public class CoreConfig {
     @Bean(name = "influxdbMetricMap")
     public Map<String, IMetric> influxdbMetricMap(IInfluxdbDataQuery influxdbDataQuery) {
         Map<String, IMetric> metricMap = new HashMap<>();
-        metricMap.put("numeric", new InfluxdbNumericMetric(influxdbDataQuery));
+        InfluxdbNumericMetric influxdbNumericMetric = new InfluxdbNumericMetric(influxdbDataQuery);
+        metricMap.put("numeric", influxdbNumericMetric);
         metricMap.put("same_time", new InfluxdbSameTimeMetric(influxdbDataQuery));
+        metricMap.put("anomaly", influxdbNumericMetric);
         return metricMap;
     }
 
@@ -100,6 +118,7 @@ public class CoreConfig {
         Map<String, IMetric> metricMap = new HashMap<>();
         metricMap.put("numeric", mysqlNumericMetric);
         metricMap.put("same_time", mysqlSameTimeMetric);
+        metricMap.put("anomaly", mysqlNumericMetric);
         return metricMap;
     }
 
@@ -108,6 +127,7 @@ public class CoreConfig {
         Map<String, IMetric> metricMap = new HashMap<>();
         metricMap.put("numeric", clickhouseNumericMetric);
         metricMap.put("same_time", clickhouseSameTimeMetric);
+        metricMap.put("anomaly", clickhouseNumericMetric);
         return metricMap;
     }
 
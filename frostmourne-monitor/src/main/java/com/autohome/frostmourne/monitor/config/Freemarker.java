@@ -1,6 +1,5 @@
 package com.autohome.frostmourne.monitor.config;
 
-import freemarker.cache.StringTemplateLoader;
 import freemarker.template.TemplateExceptionHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -16,7 +15,6 @@ public class Freemarker {
         configuration.setTemplateExceptionHandler(TemplateExceptionHandler.DEBUG_HANDLER);
         configuration.setClassicCompatible(true);
         configuration.setDateTimeFormat("yyyy-MM-dd HH:mm:ss");
-        configuration.setTemplateLoader(new StringTemplateLoader());
 
         return configuration;
     }
@@ -4,9 +4,12 @@ import javax.annotation.Resource;
 
 import com.alibaba.druid.pool.DruidDataSource;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IAlarmRepository;
+import com.autohome.frostmourne.monitor.service.core.schedule.ILocalTriggerService;
 import com.autohome.frostmourne.monitor.service.core.schedule.IRemoteTriggerService;
 import com.autohome.frostmourne.monitor.service.core.schedule.JobScheduleHelper;
 import com.autohome.frostmourne.monitor.service.core.schedule.JobTriggerHelper;
+import com.autohome.frostmourne.monitor.service.core.schedule.ScheduleIndex;
+import com.autohome.frostmourne.monitor.service.core.schedule.SchedulePartitionHelper;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
@@ -30,12 +33,57 @@ public class ScheduleConfig implements InitializingBean, DisposableBean {
     @Value("${schedule.trigger.pool.slow.max}")
     private Integer triggerPoolSlowMax;
 
+    /**
+     * 单次调度预读的分页大小
+     */
+    @Value("${schedule.preread.page.size}")
+    private Integer preReadPageSize;
+
+    /**
+     * 固定间隔监控打散触发的最大偏移秒数，0表示不打散
+     */
+    @Value("${schedule.spread.max.seconds}")
+    private Integer spreadMaxSeconds;
+
+    /**
+     * true: 调度节点直接在本地执行监控; false: 通过http调用frostmourne.monitor.address执行
+     */
+    @Value("${schedule.trigger.local}")
+    private Boolean triggerLocal;
+
+    /**
+     * 远程触发时一次请求最多包含的监控数，0表示逐个监控请求/alarm/run
+     */
+    @Value("${schedule.trigger.remote.batch.size}")
+    private Integer triggerRemoteBatchSize;
+
+    /**
+     * 调度分区数，alarm按id取模分配到分区，各调度节点分摊分区租约。集群运行期间不要修改
+     */
+    @Value("${schedule.partition.count}")
+    private Integer partitionCount;
+
+    /**
+     * true: 使用内存索引查找到期监控; false: 每次调度查询数据库
+     */
+    @Value("${schedule.index.enabled}")
+    private Boolean scheduleIndexEnabled;
+
+    /**
+     * 内存索引全量重新加载的间隔
+     */
+    @Value("${schedule.index.reload.seconds}")
+    private Integer scheduleIndexReloadSeconds;
+
     @Resource
     private IAlarmRepository alarmRepository;
 
     @Resource
     private IRemoteTriggerService remoteTriggerService;
 
+    @Resource
+    private ILocalTriggerService localTriggerService;
+
     @Resource(name = "frostmourneDataSource")
     private DruidDataSource druidDataSource;
 
@@ -53,16 +101,45 @@ public class ScheduleConfig implements InitializingBean, DisposableBean {
         return triggerPoolSlowMax;
     }
 
+    public Integer getPreReadPageSize() {
+        if (preReadPageSize < 100) {
+            return 100;
+        }
+        return preReadPageSize;
+    }
+
+    public long getSpreadMaxMs() {
+        return spreadMaxSeconds * 1000L;
+    }
+
     public Boolean getScheduleEnabled() {
         return scheduleEnabled;
     }
 
+    public Boolean getTriggerLocal() {
+        return triggerLocal;
+    }
+
+    public Integer getTriggerRemoteBatchSize() {
+        return triggerRemoteBatchSize;
+    }
+
+    public Integer getPartitionCount() {
+        return partitionCount;
+    }
+
+    public Boolean getScheduleIndexEnabled() {
+        return scheduleIndexEnabled;
+    }
+
     @Override
     public void destroy() throws Exception {
 
         if (this.scheduleEnabled) {
             JobScheduleHelper.getInstance().toStop();
+            // drain the trigger pools before release, fired_until then covers the triggers not started
             JobTriggerHelper.toStop();
+            SchedulePartitionHelper.getInstance().toStop();
         }
 
     }
@@ -73,6 +150,10 @@ public class ScheduleConfig implements InitializingBean, DisposableBean {
 
         if (this.scheduleEnabled) {
             JobTriggerHelper.toStart();
+            SchedulePartitionHelper.getInstance().start(partitionCount);
+            if (this.scheduleIndexEnabled) {
+                ScheduleIndex.getInstance().start(scheduleIndexReloadSeconds * 1000L);
+            }
             JobScheduleHelper.getInstance().start();
         }
     }
@@ -85,6 +166,10 @@ public class ScheduleConfig implements InitializingBean, DisposableBean {
         return remoteTriggerService;
     }
 
+    public ILocalTriggerService getLocalTriggerService() {
+        return localTriggerService;
+    }
+
     public DruidDataSource getDruidDataSource() {
         return druidDataSource;
     }
@@ -0,0 +1,62 @@
+package com.autohome.frostmourne.monitor.contract;
+
+import java.util.Date;
+
+/**
+ * 批量执行中单个监控的执行状态
+ */
+public class AlarmRunStatus {
+
+    private Long alarmId;
+
+    /**
+     * QUEUED, RUNNING, REJECTED, UNKNOWN 或执行结束后的 ExecuteStatus
+     */
+    private String status;
+
+    private Date acceptTime;
+
+    private Date finishTime;
+
+    private String message;
+
+    public Long getAlarmId() {
+        return alarmId;
+    }
+
+    public void setAlarmId(Long alarmId) {
+        this.alarmId = alarmId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Date getAcceptTime() {
+        return acceptTime;
+    }
+
+    public void setAcceptTime(Date acceptTime) {
+        this.acceptTime = acceptTime;
+    }
+
+    public Date getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(Date finishTime) {
+        this.finishTime = finishTime;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
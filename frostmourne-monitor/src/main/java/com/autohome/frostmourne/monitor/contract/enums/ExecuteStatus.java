@@ -13,6 +13,9 @@ public enum ExecuteStatus {
     /*
      * 执行过程出错*/
     ERROR(3, "ERROR"),
+    /*
+     * 执行超过时间预算被中止*/
+    TIMEOUT(4, "TIMEOUT"),
     ;
 
     private int status;
@@ -1,12 +1,15 @@
 package com.autohome.frostmourne.monitor.controller;
 
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Resource;
 
 import com.autohome.frostmourne.core.contract.Protocol;
 import com.autohome.frostmourne.monitor.contract.AlarmContract;
+import com.autohome.frostmourne.monitor.contract.AlarmRunStatus;
 import com.autohome.frostmourne.monitor.controller.annotation.PermissionLimit;
 import com.autohome.frostmourne.monitor.service.admin.IAlarmAdminService;
+import com.autohome.frostmourne.monitor.service.core.execute.AlarmBatchRunner;
 import com.autohome.frostmourne.monitor.service.core.execute.AlarmProcessLogger;
 import com.autohome.frostmourne.monitor.service.core.execute.IAlarmService;
 import com.autohome.frostmourne.monitor.service.core.metric.IMetric;
@@ -30,6 +33,9 @@ public class AlarmController {
     @Resource
     private IAlarmAdminService alarmAdminService;
 
+    @Resource
+    private AlarmBatchRunner alarmBatchRunner;
+
     @RequestMapping(value = "/run", method = RequestMethod.GET)
     @PermissionLimit(limit = false)
     public Protocol<String> run(@RequestParam(value = "_appId", required = true) String _appId, Long alarmId) {
@@ -37,6 +43,23 @@ public class AlarmController {
         return new Protocol<>(alarmProcessLogger.traceInfo());
     }
 
+    /**
+     * 批量执行，放入执行队列后立即返回每个监控的接收状态
+     */
+    @RequestMapping(value = "/runBatch", method = RequestMethod.POST)
+    @PermissionLimit(limit = false)
+    public Protocol<Map<Long, String>> runBatch(@RequestParam(value = "_appId", required = true) String _appId,
+                                                @RequestBody List<Long> alarmIds) {
+        return new Protocol<>(alarmBatchRunner.submit(alarmIds));
+    }
+
+    @RequestMapping(value = "/runStatus", method = RequestMethod.GET)
+    @PermissionLimit(limit = false)
+    public Protocol<List<AlarmRunStatus>> runStatus(@RequestParam(value = "_appId", required = true) String _appId,
+                                                    @RequestParam(value = "alarmIds") List<Long> alarmIds) {
+        return new Protocol<>(alarmBatchRunner.findStatus(alarmIds));
+    }
+
     @RequestMapping(value = "/test", method = RequestMethod.POST)
     public Protocol<String> test(@RequestParam(value = "_appId", required = true) String _appId, @RequestBody AlarmContract alarmContract) {
         AlarmProcessLogger alarmProcessLogger = alarmService.test(alarmContract);
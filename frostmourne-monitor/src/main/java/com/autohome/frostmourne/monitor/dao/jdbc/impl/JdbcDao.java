@@ -16,6 +16,7 @@ import com.autohome.frostmourne.monitor.contract.DataNameContract;
 import com.autohome.frostmourne.monitor.contract.DataSourceContract;
 import com.autohome.frostmourne.monitor.dao.jdbc.IDataSourceJdbcManager;
 import com.autohome.frostmourne.monitor.dao.jdbc.IJdbcDao;
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,6 +59,11 @@ public class JdbcDao implements IJdbcDao {
                     statement.setObject(i + 1, args[i]);
                 }
             }
+            if (ExecuteDeadline.isSet()) {
+                // 监控执行中的查询不超过执行的剩余时间，queryTimeout单位为秒
+                ExecuteDeadline.check();
+                statement.setQueryTimeout((int) Math.max((ExecuteDeadline.remainingMs() + 999) / 1000, 1));
+            }
             log.debug("execute query: sql={}, args={}", sql, args);
             resultSet = statement.executeQuery();
             List<Map<String, Object>> list = new ArrayList<>(resultSet.getRow());
@@ -0,0 +1,55 @@
+package com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain;
+
+import java.util.Date;
+
+/**
+ * 有状态规则的检查点
+ */
+public class RuleState {
+
+    private Long alarmId;
+
+    /**
+     * 规则状态json
+     */
+    private String stateValue;
+
+    /**
+     * 每次写入加1
+     */
+    private Long version;
+
+    private Date modifyAt;
+
+    public Long getAlarmId() {
+        return alarmId;
+    }
+
+    public void setAlarmId(Long alarmId) {
+        this.alarmId = alarmId;
+    }
+
+    public String getStateValue() {
+        return stateValue;
+    }
+
+    public void setStateValue(String stateValue) {
+        this.stateValue = stateValue;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Date getModifyAt() {
+        return modifyAt;
+    }
+
+    public void setModifyAt(Date modifyAt) {
+        this.modifyAt = modifyAt;
+    }
+}
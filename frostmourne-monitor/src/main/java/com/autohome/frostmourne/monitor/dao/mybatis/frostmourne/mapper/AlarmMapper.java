@@ -0,0 +1,34 @@
+package com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.mapper;
+
+import java.util.Date;
+import java.util.List;
+
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.Alarm;
+import org.apache.ibatis.annotations.Param;
+
+public interface AlarmMapper {
+
+    List<Alarm> querySchedule(@Param("maxNextTime") Long maxNextTime,
+                              @Param("size") Long size,
+                              @Param("partitionCount") Integer partitionCount,
+                              @Param("partitions") List<Integer> partitions,
+                              @Param("afterNextTime") Long afterNextTime,
+                              @Param("afterId") Long afterId);
+
+    long countSchedule(@Param("maxNextTime") Long maxNextTime,
+                       @Param("partitionCount") Integer partitionCount,
+                       @Param("partitions") List<Integer> partitions,
+                       @Param("afterNextTime") Long afterNextTime,
+                       @Param("afterId") Long afterId);
+
+    List<Alarm> queryScheduleIndex(@Param("partitionCount") Integer partitionCount,
+                                   @Param("partitions") List<Integer> partitions);
+
+    List<Alarm> queryModified(@Param("modifyAfter") Date modifyAfter);
+
+    List<Alarm> queryUnfired(@Param("partitionCount") Integer partitionCount,
+                             @Param("partition") Integer partition,
+                             @Param("lastTimeAfter") Long lastTimeAfter);
+
+    String findContractVersion(@Param("alarmId") Long alarmId);
+}
@@ -0,0 +1,17 @@
+package com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.mapper;
+
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.RuleState;
+import org.apache.ibatis.annotations.Param;
+
+public interface RuleStateMapper {
+
+    RuleState findByAlarm(@Param("alarmId") Long alarmId);
+
+    Long findVersion(@Param("alarmId") Long alarmId);
+
+    int insertIgnore(RuleState ruleState);
+
+    int updateByVersion(RuleState ruleState);
+
+    int deleteByAlarm(@Param("alarmId") Long alarmId);
+}
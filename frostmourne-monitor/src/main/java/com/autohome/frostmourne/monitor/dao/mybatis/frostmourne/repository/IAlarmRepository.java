@@ -29,7 +29,39 @@ public interface IAlarmRepository {
 
     long total();
 
-    List<Alarm> querySchedule(Long maxNextTime, Long size);
+    /**
+     * 按(trigger_next_time, id)顺序分页查询待调度的监控，只返回id % partitionCount落在partitions中的记录
+     *
+     * @param afterNextTime 上一页最后一条的trigger_next_time，第一页传null
+     * @param afterId       上一页最后一条的id，第一页传null
+     */
+    List<Alarm> querySchedule(Long maxNextTime, Long size, int partitionCount, List<Integer> partitions, Long afterNextTime, Long afterId);
+
+    /**
+     * 统计querySchedule条件下剩余的待调度监控数量
+     */
+    long countSchedule(Long maxNextTime, int partitionCount, List<Integer> partitions, Long afterNextTime, Long afterId);
+
+    /**
+     * 查询分区内全部开启的监控，用于加载调度索引
+     */
+    List<Alarm> queryScheduleIndex(int partitionCount, List<Integer> partitions);
+
+    /**
+     * 查询modify_at不早于modifyAfter的监控(包括已关闭的)，用于增量同步调度索引
+     */
+    List<Alarm> queryModified(Date modifyAfter);
+
+    /**
+     * 查询分区内trigger_last_time晚于lastTimeAfter的开启的监控，用于接管分区时恢复原持有者未触发的时间轮任务
+     */
+    List<Alarm> queryUnfired(int partitionCount, int partition, long lastTimeAfter);
+
+    /**
+     * 监控完整配置的版本，由alarm、metric、data_name、data_source、service_info的修改时间组成。
+     * 保存监控时metric会重新插入，同一秒内的多次保存也会得到不同的版本
+     */
+    Optional<String> findContractVersion(Long alarmId);
 
     int scheduleUpdate(long alarmId, long triggerLastTime, long triggerNextTime);
 }
@@ -0,0 +1,21 @@
+package com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository;
+
+import java.util.Optional;
+
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.RuleState;
+
+public interface IRuleStateRepository {
+
+    Optional<RuleState> findByAlarm(Long alarmId);
+
+    Optional<Long> findVersion(Long alarmId);
+
+    /**
+     * 按version写入：version为0时插入，否则只覆盖version相同的记录，写入后version加1
+     *
+     * @return 是否写入，其他节点已经写入更新的状态时返回false
+     */
+    boolean save(RuleState ruleState);
+
+    int deleteByAlarm(Long alarmId);
+}
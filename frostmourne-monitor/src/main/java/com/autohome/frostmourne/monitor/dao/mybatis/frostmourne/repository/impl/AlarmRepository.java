@@ -1,7 +1,6 @@
 package com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.impl;
 
 import static org.mybatis.dynamic.sql.SqlBuilder.isEqualTo;
-import static org.mybatis.dynamic.sql.SqlBuilder.isLessThanOrEqualTo;
 import static org.mybatis.dynamic.sql.SqlBuilder.isLike;
 
 import java.util.Date;
@@ -10,8 +9,8 @@ import java.util.Optional;
 import javax.annotation.Resource;
 
 import com.autohome.frostmourne.core.contract.PagerContract;
-import com.autohome.frostmourne.monitor.contract.enums.AlarmStatus;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.Alarm;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.mapper.AlarmMapper;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.mapper.dynamic.AlarmDynamicMapper;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.mapper.dynamic.AlarmDynamicSqlSupport;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IAlarmRepository;
@@ -31,6 +30,9 @@ public class AlarmRepository implements IAlarmRepository {
     @Resource
     private AlarmDynamicMapper alarmDynamicMapper;
 
+    @Resource
+    private AlarmMapper alarmMapper;
+
     @Override
     public int deleteByPrimaryKey(Long id) {
         return alarmDynamicMapper.deleteByPrimaryKey(id);
@@ -62,6 +64,7 @@ public class AlarmRepository implements IAlarmRepository {
         Alarm record = new Alarm();
         record.setId(alarmId);
         record.setStatus(status);
+        record.setModifyAt(new Date());
         return alarmDynamicMapper.updateByPrimaryKeySelective(record);
     }
 
@@ -103,14 +106,33 @@ public class AlarmRepository implements IAlarmRepository {
     }
 
     @Override
-    public List<Alarm> querySchedule(Long maxNextTime, Long size) {
-        List<Alarm> list = alarmDynamicMapper.select(query -> {
-            query.where().and(AlarmDynamicSqlSupport.status, isEqualTo(AlarmStatus.OPEN))
-                    .and(AlarmDynamicSqlSupport.triggerNextTime, isLessThanOrEqualTo(maxNextTime))
-                    .orderBy(AlarmDynamicSqlSupport.id.descending()).limit(size);
-            return query;
-        });
-        return list;
+    public List<Alarm> querySchedule(Long maxNextTime, Long size, int partitionCount, List<Integer> partitions, Long afterNextTime, Long afterId) {
+        return alarmMapper.querySchedule(maxNextTime, size, partitionCount, partitions, afterNextTime, afterId);
+    }
+
+    @Override
+    public long countSchedule(Long maxNextTime, int partitionCount, List<Integer> partitions, Long afterNextTime, Long afterId) {
+        return alarmMapper.countSchedule(maxNextTime, partitionCount, partitions, afterNextTime, afterId);
+    }
+
+    @Override
+    public List<Alarm> queryScheduleIndex(int partitionCount, List<Integer> partitions) {
+        return alarmMapper.queryScheduleIndex(partitionCount, partitions);
+    }
+
+    @Override
+    public List<Alarm> queryModified(Date modifyAfter) {
+        return alarmMapper.queryModified(modifyAfter);
+    }
+
+    @Override
+    public List<Alarm> queryUnfired(int partitionCount, int partition, long lastTimeAfter) {
+        return alarmMapper.queryUnfired(partitionCount, partition, lastTimeAfter);
+    }
+
+    @Override
+    public Optional<String> findContractVersion(Long alarmId) {
+        return Optional.ofNullable(alarmMapper.findContractVersion(alarmId));
     }
 
     @Override
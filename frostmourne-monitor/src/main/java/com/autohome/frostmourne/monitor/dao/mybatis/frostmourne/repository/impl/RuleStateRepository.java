@@ -0,0 +1,39 @@
+package com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.impl;
+
+import java.util.Optional;
+import javax.annotation.Resource;
+
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.RuleState;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.mapper.RuleStateMapper;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IRuleStateRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class RuleStateRepository implements IRuleStateRepository {
+
+    @Resource
+    private RuleStateMapper ruleStateMapper;
+
+    @Override
+    public Optional<RuleState> findByAlarm(Long alarmId) {
+        return Optional.ofNullable(ruleStateMapper.findByAlarm(alarmId));
+    }
+
+    @Override
+    public Optional<Long> findVersion(Long alarmId) {
+        return Optional.ofNullable(ruleStateMapper.findVersion(alarmId));
+    }
+
+    @Override
+    public boolean save(RuleState ruleState) {
+        if (ruleState.getVersion() == null || ruleState.getVersion() == 0) {
+            return ruleStateMapper.insertIgnore(ruleState) > 0;
+        }
+        return ruleStateMapper.updateByVersion(ruleState) > 0;
+    }
+
+    @Override
+    public int deleteByAlarm(Long alarmId) {
+        return ruleStateMapper.deleteByAlarm(alarmId);
+    }
+}
@@ -19,6 +19,11 @@ public interface IAlarmAdminService {
 
     AlarmContract findById(Long alarmId);
 
+    /**
+     * 执行监控时使用，配置版本没有变化时返回缓存的AlarmContract，返回的对象被共享，不能修改
+     */
+    AlarmContract findCachedById(Long alarmId);
+
     PagerContract<Alarm> find(int pageIndex, int pageSize, Long alarmId, String name,
                               String teamName, String status, Long serviceId);
 
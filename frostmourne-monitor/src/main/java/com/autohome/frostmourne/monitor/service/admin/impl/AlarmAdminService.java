@@ -37,7 +37,11 @@ import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IReci
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IRulePropertyRepository;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IRuleRepository;
 import com.autohome.frostmourne.monitor.service.admin.IAlarmAdminService;
+import com.autohome.frostmourne.monitor.service.core.rule.AnomalyStateStore;
+import com.autohome.frostmourne.monitor.service.core.rule.RulePlan;
+import com.autohome.frostmourne.monitor.service.core.schedule.ScheduleIndex;
 import com.autohome.frostmourne.monitor.service.core.service.IServiceInfoService;
+import com.autohome.frostmourne.monitor.service.core.template.ITemplateService;
 import com.autohome.frostmourne.monitor.transform.DataNameTransformer;
 import com.autohome.frostmourne.monitor.transform.DataSourceTransformer;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -63,6 +67,7 @@ public class AlarmAdminService implements IAlarmAdminService {
             put("ring_than", "percentage");
             put("same_time", "percentage");
             put("object", "expression");
+            put("anomaly", "anomaly");
         }
     };
 
@@ -97,23 +102,46 @@ public class AlarmAdminService implements IAlarmAdminService {
     @Resource
     private IServiceInfoService serviceInfoService;
 
+    @Resource
+    private AnomalyStateStore anomalyStateStore;
+
+    @Resource
+    private ITemplateService templateService;
+
+    private final AlarmContractCache alarmContractCache = new AlarmContractCache();
+
     public boolean atomicSave(AlarmContract alarmContract) {
         boolean isValidCron = CronExpression.isValidExpression(alarmContract.getCron());
         if (!isValidCron) {
             throw new ProtocolException(510, "cron表达式非法");
         }
         padAlarm(alarmContract);
+        try {
+            RulePlan.validate(alarmContract.getRuleContract().getRuleType(), alarmContract.getMetricContract().getMetricType(),
+                    alarmContract.getRuleContract().getSettings());
+        } catch (IllegalArgumentException ex) {
+            throw new ProtocolException(511, "规则设置非法: " + ex.getMessage());
+        }
+        try {
+            templateService.validate(alarmContract.getRuleContract().getAlertTemplate());
+        } catch (IllegalArgumentException ex) {
+            throw new ProtocolException(512, "消息模板语法错误: " + ex.getMessage());
+        }
         DefaultTransactionDefinition def = new DefaultTransactionDefinition();
         def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
         TransactionStatus status = frostmourneTransactionManager.getTransaction(def);
+        Long alarmId;
         try {
-            save(alarmContract);
+            alarmId = save(alarmContract);
         } catch (Exception ex) {
             frostmourneTransactionManager.rollback(status);
             LOGGER.error("error when save alarm", ex);
             throw ex;
         }
         frostmourneTransactionManager.commit(status);
+        alarmContractCache.invalidate(alarmId);
+        templateService.compile(alarmId, alarmContract.getRuleContract().getAlertTemplate());
+        ScheduleIndex.getInstance().markChanged(alarmId);
         return true;
     }
 
@@ -137,6 +165,9 @@ public class AlarmAdminService implements IAlarmAdminService {
             frostmourneTransactionManager.rollback(status);
         }
         frostmourneTransactionManager.commit(status);
+        alarmContractCache.invalidate(alarmId);
+        ScheduleIndex.getInstance().markChanged(alarmId);
+        anomalyStateStore.remove(alarmId);
         return true;
     }
 
@@ -253,6 +284,36 @@ public class AlarmAdminService implements IAlarmAdminService {
         return alarmContract;
     }
 
+    public AlarmContract findCachedById(Long alarmId) {
+        // 一次查询比较配置版本，其他节点的修改也能感知
+        Optional<String> optionalVersion = alarmRepository.findContractVersion(alarmId);
+        if (!optionalVersion.isPresent()) {
+            alarmContractCache.invalidate(alarmId);
+            // deleted by another node, drop it from the schedule index without waiting for full reload
+            ScheduleIndex.getInstance().markChanged(alarmId);
+            return null;
+        }
+        String version = optionalVersion.get();
+        AlarmContract alarmContract = alarmContractCache.get(alarmId, version);
+        if (alarmContract != null) {
+            return alarmContract;
+        }
+        // 版本先于配置读取，期间发生的修改会在下一次执行时因版本不一致重新加载
+        alarmContract = findById(alarmId);
+        if (alarmContract != null) {
+            // compile rule settings and alert template once for this version
+            RulePlan.of(alarmContract.getRuleContract().getSettings());
+            try {
+                templateService.compile(alarmId, alarmContract.getRuleContract().getAlertTemplate());
+            } catch (IllegalArgumentException ex) {
+                // templates saved before validation fail when the alert is sent
+                LOGGER.warn("error when compile alert template, alarmId: {}", alarmId, ex);
+            }
+            alarmContractCache.put(alarmId, version, alarmContract);
+        }
+        return alarmContract;
+    }
+
     public PagerContract<Alarm> find(int pageIndex, int pageSize, Long alarmId, String name,
                                      String teamName, String status, Long serviceId) {
         return alarmRepository.findPage(pageIndex, pageSize, alarmId, name, teamName, status, serviceId);
@@ -265,10 +326,13 @@ public class AlarmAdminService implements IAlarmAdminService {
     }
 
     private boolean updateStatus(Long alarmId, String status) {
-        return alarmRepository.updateStatus(alarmId, status) > 0;
+        boolean result = alarmRepository.updateStatus(alarmId, status) > 0;
+        alarmContractCache.invalidate(alarmId);
+        ScheduleIndex.getInstance().markChanged(alarmId);
+        return result;
     }
 
-    public void save(AlarmContract alarmContract) {
+    public Long save(AlarmContract alarmContract) {
 
         //1. save alarm
         boolean isNewAlarm = (alarmContract.getId() == null) || (alarmContract.getId() == 0);
@@ -282,7 +346,7 @@ public class AlarmAdminService implements IAlarmAdminService {
         saveAlert(alarmContract.getAlertContract(), alarmId, isNewAlarm, alarmContract.getOperator());
         Long ruleId = saveRule(alarmContract.getRuleContract(), alarmId, isNewAlarm, alarmContract.getOperator());
         saveMetric(alarmContract.getMetricContract(), alarmId, ruleId, isNewAlarm, alarmContract.getOperator());
-
+        return alarmId;
     }
 
     private Alarm addAlarm(AlarmContract alarmContract) {
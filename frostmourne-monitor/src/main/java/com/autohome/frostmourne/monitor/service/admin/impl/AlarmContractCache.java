@@ -0,0 +1,62 @@
+package com.autohome.frostmourne.monitor.service.admin.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.autohome.frostmourne.monitor.contract.AlarmContract;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 执行监控时使用的AlarmContract缓存
+ * <p>
+ * 组装一个AlarmContract需要查询alarm、metric、data_name、data_source、rule、rule_property、alert、recipient和service_info，
+ * 缓存按alarm id保存组装好的对象和对应的配置版本，版本没有变化时直接复用。缓存的对象被多个执行共享，不能修改
+ */
+public class AlarmContractCache {
+
+    private static final long MAX_SIZE = 10000;
+
+    /**
+     * 长时间不执行的监控释放缓存
+     */
+    private static final long EXPIRE_HOURS = 2;
+
+    private final Cache<Long, Entry> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterAccess(EXPIRE_HOURS, TimeUnit.HOURS)
+            .build();
+
+    public AlarmContract get(Long alarmId, String version) {
+        Entry entry = cache.getIfPresent(alarmId);
+        if (entry == null || !entry.version.equals(version)) {
+            return null;
+        }
+        return entry.alarmContract;
+    }
+
+    public void put(Long alarmId, String version, AlarmContract alarmContract) {
+        cache.put(alarmId, new Entry(version, alarmContract));
+    }
+
+    public void invalidate(Long alarmId) {
+        if (alarmId != null) {
+            cache.invalidate(alarmId);
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static class Entry {
+
+        private final String version;
+
+        private final AlarmContract alarmContract;
+
+        Entry(String version, AlarmContract alarmContract) {
+            this.version = version;
+            this.alarmContract = alarmContract;
+        }
+    }
+}
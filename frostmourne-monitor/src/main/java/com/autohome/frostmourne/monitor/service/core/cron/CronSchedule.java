@@ -0,0 +1,22 @@
+package com.autohome.frostmourne.monitor.service.core.cron;
+
+/**
+ * 解析后的cron调度，实例不可变，可以被多个线程共享
+ */
+public interface CronSchedule {
+
+    /**
+     * 计算afterTime之后的下一次触发时间
+     *
+     * @param afterTime 起始时间，毫秒
+     * @return 下一次触发时间，毫秒；没有下一次触发时返回-1
+     */
+    long nextValidTimeAfter(long afterTime);
+
+    /**
+     * 固定的触发间隔，毫秒；间隔不固定时返回0
+     */
+    default long getFixedPeriod() {
+        return 0;
+    }
+}
@@ -0,0 +1,46 @@
+package com.autohome.frostmourne.monitor.service.core.cron;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 按表达式缓存解析后的cron调度，避免每次计算下一次触发时间都重新解析
+ */
+public final class CronScheduleCache {
+
+    private static final long MAX_SIZE = 10000;
+
+    private static final Cache<String, CronSchedule> CACHE = CacheBuilder.newBuilder().maximumSize(MAX_SIZE).build();
+
+    private CronScheduleCache() {
+    }
+
+    public static CronSchedule get(String cron) throws ParseException {
+        try {
+            return CACHE.get(cron, () -> compile(cron));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ParseException) {
+                throw (ParseException) e.getCause();
+            }
+            throw new IllegalArgumentException("illegal cron expression: " + cron, e.getCause());
+        }
+    }
+
+    static CronSchedule compile(String cron) throws ParseException {
+        CronExpression expression = new CronExpression(cron);
+        // 提前初始化时区，之后只读，可以被多个线程共享
+        expression.getTimeZone();
+        CronSchedule intervalSchedule = IntervalCronSchedule.tryParse(cron, expression);
+        if (intervalSchedule != null) {
+            return intervalSchedule;
+        }
+        return afterTime -> {
+            Date nextValidTime = expression.getNextValidTimeAfter(new Date(afterTime));
+            return nextValidTime == null ? -1 : nextValidTime.getTime();
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package com.autohome.frostmourne.monitor.service.core.cron;
+
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 固定间隔cron的算术实现，支持以下两种最常用的写法：
+ * <ul>
+ *     <li>*&#47;N * * * * ? : 每N秒</li>
+ *     <li>0 *&#47;N * * * ? : 每N分钟</li>
+ * </ul>
+ * 秒和分钟的取值用long位图表示，计算下一次触发时间只做整数运算，不创建Calendar。
+ * 时区偏移变化(夏令时切换)前后一小时内回退到CronExpression，结果和CronExpression保持一致。
+ */
+public final class IntervalCronSchedule implements CronSchedule {
+
+    private static final Pattern EVERY_N_SECONDS = Pattern.compile("^[*0]/(\\d{1,2})\\s+\\*\\s+\\*\\s+\\*\\s+\\*\\s+\\?$");
+
+    private static final Pattern EVERY_N_MINUTES = Pattern.compile("^0\\s+[*0]/(\\d{1,2})\\s+\\*\\s+\\*\\s+\\*\\s+\\?$");
+
+    private static final long ALL_MASK = (1L << 60) - 1;
+
+    /**
+     * 时区偏移变化前后一小时内的计算交给CronExpression
+     */
+    private static final long DST_GUARD_MS = 3600 * 1000L;
+
+    private final long secondMask;
+
+    private final long minuteMask;
+
+    private final long fixedPeriod;
+
+    private final TimeZone timeZone;
+
+    private final CronExpression fallback;
+
+    private IntervalCronSchedule(long secondMask, long minuteMask, long fixedPeriod, CronExpression fallback) {
+        this.secondMask = secondMask;
+        this.minuteMask = minuteMask;
+        this.fixedPeriod = fixedPeriod;
+        this.timeZone = fallback.getTimeZone();
+        this.fallback = fallback;
+    }
+
+    /**
+     * 尝试按固定间隔解析
+     *
+     * @param cron       cron表达式
+     * @param expression 同一表达式解析后的CronExpression，用于时区偏移变化时回退
+     * @return 不是支持的写法时返回null
+     */
+    public static IntervalCronSchedule tryParse(String cron, CronExpression expression) {
+        String text = cron.trim();
+        Matcher matcher = EVERY_N_SECONDS.matcher(text);
+        if (matcher.matches()) {
+            int step = Integer.parseInt(matcher.group(1));
+            return step > 0 && step < 60 ? new IntervalCronSchedule(stepMask(step), ALL_MASK, fixedPeriod(step, 1000L), expression) : null;
+        }
+        matcher = EVERY_N_MINUTES.matcher(text);
+        if (matcher.matches()) {
+            int step = Integer.parseInt(matcher.group(1));
+            return step > 0 && step < 60 ? new IntervalCronSchedule(1L, stepMask(step), fixedPeriod(step, 60 * 1000L), expression) : null;
+        }
+        return null;
+    }
+
+    @Override
+    public long nextValidTimeAfter(long afterTime) {
+        int offset = timeZone.getOffset(afterTime);
+        // 和CronExpression一样，从下一整秒开始找
+        long localSecond = Math.floorDiv(afterTime + offset, 1000L) + 1;
+        long minuteStart = localSecond - Math.floorMod(localSecond, 60L);
+        int second = (int) (localSecond - minuteStart);
+        int minute = (int) Math.floorMod(minuteStart / 60, 60L);
+
+        // 分钟位图至少有一位，最多推进一小时即可命中
+        for (int i = 0; i <= 60; i++) {
+            if ((minuteMask & (1L << minute)) != 0) {
+                long candidates = secondMask & (ALL_MASK << second);
+                if (candidates != 0) {
+                    long next = (minuteStart + Long.numberOfTrailingZeros(candidates)) * 1000L - offset;
+                    if (timeZone.getOffset(afterTime - DST_GUARD_MS) != offset || timeZone.getOffset(next + DST_GUARD_MS) != offset) {
+                        break;
+                    }
+                    return next;
+                }
+            }
+            minuteStart += 60;
+            second = 0;
+            minute = minute == 59 ? 0 : minute + 1;
+        }
+
+        Date nextValidTime = fallback.getNextValidTimeAfter(new Date(afterTime));
+        return nextValidTime == null ? -1 : nextValidTime.getTime();
+    }
+
+    @Override
+    public long getFixedPeriod() {
+        return fixedPeriod;
+    }
+
+    /**
+     * 步长不能整除60时，跨分钟(小时)的间隔会变短，不算固定间隔
+     */
+    private static long fixedPeriod(int step, long unitMs) {
+        return 60 % step == 0 ? step * unitMs : 0;
+    }
+
+    private static long stepMask(int step) {
+        long mask = 0;
+        for (int value = 0; value < 60; value += step) {
+            mask |= 1L << value;
+        }
+        return mask;
+    }
+}
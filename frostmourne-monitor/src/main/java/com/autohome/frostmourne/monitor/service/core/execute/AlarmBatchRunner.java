@@ -0,0 +1,171 @@
+package com.autohome.frostmourne.monitor.service.core.execute;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import com.autohome.frostmourne.monitor.contract.AlarmRunStatus;
+import com.autohome.frostmourne.monitor.contract.enums.ExecuteStatus;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量执行监控
+ * <p>
+ * 调度节点把一次调度中到期的监控合并为一个请求发送到执行节点，执行节点放入队列后立即返回，在线程池中异步执行。
+ * 每个监控的执行状态保存一段时间，可以按id查询。已经在队列中等待的监控不会重复放入
+ */
+@Component
+public class AlarmBatchRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlarmBatchRunner.class);
+
+    public static final String QUEUED = "QUEUED";
+
+    public static final String RUNNING = "RUNNING";
+
+    public static final String REJECTED = "REJECTED";
+
+    public static final String UNKNOWN = "UNKNOWN";
+
+    private static final long STATUS_EXPIRE_MINUTES = 30;
+
+    private static final long STOP_WAIT_MS = 10000;
+
+    @Resource
+    private IAlarmService alarmService;
+
+    @Value("${alarm.batch.run.threads:32}")
+    private int threads;
+
+    @Value("${alarm.batch.run.queue.size:5000}")
+    private int queueSize;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 已经放入队列还没有开始执行的监控
+     */
+    private final ConcurrentMap<Long, Boolean> queuedAlarms = new ConcurrentHashMap<>();
+
+    private final Cache<Long, AlarmRunStatus> statusCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(STATUS_EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    @PostConstruct
+    private void start() {
+        int threadCount = Math.max(threads, 1);
+        executor = new ThreadPoolExecutor(threadCount, threadCount,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(queueSize, 1)),
+                new ThreadFactory() {
+                    private final AtomicInteger index = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AlarmBatchRunner-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("stop batch runner with {} alarms in queue", executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 放入执行队列并立即返回每个监控的接收状态: QUEUED 或 REJECTED(队列已满)
+     */
+    public Map<Long, String> submit(List<Long> alarmIds) {
+        Map<Long, String> result = new LinkedHashMap<>();
+        Date now = new Date();
+        for (Long alarmId : alarmIds) {
+            if (alarmId == null || result.containsKey(alarmId)) {
+                continue;
+            }
+            if (queuedAlarms.putIfAbsent(alarmId, Boolean.TRUE) != null) {
+                result.put(alarmId, QUEUED);
+                continue;
+            }
+            try {
+                updateStatus(alarmId, QUEUED, now, null, null);
+                executor.execute(() -> run(alarmId, now));
+                result.put(alarmId, QUEUED);
+            } catch (RejectedExecutionException ex) {
+                queuedAlarms.remove(alarmId);
+                updateStatus(alarmId, REJECTED, now, now, "batch run queue is full");
+                result.put(alarmId, REJECTED);
+            }
+        }
+        return result;
+    }
+
+    public List<AlarmRunStatus> findStatus(List<Long> alarmIds) {
+        List<AlarmRunStatus> statusList = new ArrayList<>(alarmIds.size());
+        for (Long alarmId : alarmIds) {
+            AlarmRunStatus alarmRunStatus = statusCache.getIfPresent(alarmId);
+            if (alarmRunStatus == null) {
+                alarmRunStatus = new AlarmRunStatus();
+                alarmRunStatus.setAlarmId(alarmId);
+                alarmRunStatus.setStatus(UNKNOWN);
+            }
+            statusList.add(alarmRunStatus);
+        }
+        return statusList;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    private void run(Long alarmId, Date acceptTime) {
+        queuedAlarms.remove(alarmId);
+        updateStatus(alarmId, RUNNING, acceptTime, null, null);
+        try {
+            AlarmProcessLogger alarmProcessLogger = alarmService.run(alarmId, false);
+            updateStatus(alarmId, alarmProcessLogger.getExecuteStatus().getName(), acceptTime, new Date(), null);
+        } catch (Exception ex) {
+            LOGGER.error("error when batch run alarm, id: {}", alarmId, ex);
+            updateStatus(alarmId, ExecuteStatus.ERROR.getName(), acceptTime, new Date(), ex.getMessage());
+        }
+    }
+
+    private void updateStatus(Long alarmId, String status, Date acceptTime, Date finishTime, String message) {
+        AlarmRunStatus alarmRunStatus = new AlarmRunStatus();
+        alarmRunStatus.setAlarmId(alarmId);
+        alarmRunStatus.setStatus(status);
+        alarmRunStatus.setAcceptTime(acceptTime);
+        alarmRunStatus.setFinishTime(finishTime);
+        alarmRunStatus.setMessage(message);
+        statusCache.put(alarmId, alarmRunStatus);
+    }
+}
@@ -10,6 +10,8 @@ import com.autohome.frostmourne.monitor.contract.enums.AlertTemplateType;
 import com.autohome.frostmourne.monitor.contract.enums.ExecuteStatus;
 import com.autohome.frostmourne.monitor.service.core.metric.IMetric;
 import com.autohome.frostmourne.monitor.service.core.rule.IRule;
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
 
 public class AlarmExecutor {
 
@@ -25,6 +27,11 @@ public class AlarmExecutor {
 
     private AlarmProcessLogger alarmProcessLogger;
 
+    /**
+     * 执行时间预算，小于等于0表示不限制
+     */
+    private long timeoutMs;
+
     public AlarmExecutor(AlarmContract alarmContract, IRule rule, IMetric metric, IGenerateShortLinkService generateShortLinkService) {
         this.alarmContract = alarmContract;
         this.rule = rule;
@@ -33,6 +40,21 @@ public class AlarmExecutor {
         this.alarmProcessLogger = new AlarmProcessLogger();
     }
 
+    /**
+     * 开启后记录完整的执行上下文
+     */
+    public void setDebug(boolean debug) {
+        this.alarmProcessLogger.setDebug(debug);
+    }
+
+    public void setTest(boolean test) {
+        this.alarmProcessLogger.setTest(test);
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
     public AlarmProcessLogger execute() {
         this.alarmProcessLogger.setAlarmContract(this.alarmContract);
         this.alarmProcessLogger.trace("execute start");
@@ -46,8 +68,13 @@ public class AlarmExecutor {
     }
 
     private ExecuteStatus doRule() {
+        ExecuteDeadline.start(this.timeoutMs);
         try {
             boolean isAlert = this.rule.verify(this.alarmProcessLogger, alarmContract.getRuleContract(), alarmContract.getMetricContract(), metric);
+            // 部分数据源查询出错时返回空结果，到期后的判断结果不可信
+            if (ExecuteDeadline.isExpired()) {
+                return timeout(null);
+            }
             this.alarmProcessLogger.setAlert(isAlert);
             this.alarmProcessLogger.trace("isAlert: " + isAlert);
             if (isAlert) {
@@ -57,24 +84,53 @@ public class AlarmExecutor {
             }
             return ExecuteStatus.SUCCESS;
         } catch (Exception ex) {
+            if (ExecuteDeadline.isExpired() || isTimeout(ex)) {
+                return timeout(ex);
+            }
             LOGGER.error("error when doRule", ex);
             return ExecuteStatus.ERROR;
+        } finally {
+            ExecuteDeadline.clear();
         }
     }
 
-    private String completeAlertMessage() {
-        StringBuilder messageBuilder = new StringBuilder(alarmContract.getRuleContract().getAlertTemplate());
-        // 链接前置，支持自定义链接占位符替换
-        String shortLink = generateShortLinkService.generate(alarmProcessLogger);
-        if (!Strings.isNullOrEmpty(shortLink)) {
-            if (AlertTemplateType.MARKDOWN.equals(alarmContract.getRuleContract().getAlertTemplateType())) {
-                messageBuilder.append("\n\n").append("[查看全部](").append(shortLink).append(")");
-            } else {
-                messageBuilder.append("\n\n").append("详细请看: ").append(shortLink);
+    private boolean isTimeout(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UncheckedTimeoutException) {
+                return true;
             }
         }
+        return false;
+    }
 
-        return this.rule.alertMessage(messageBuilder.toString(), this.alarmProcessLogger.getContext());
+    private ExecuteStatus timeout(Exception ex) {
+        LOGGER.warn("alarm execute timeout, alarmId: {}, timeout: {}ms, error: {}", alarmContract.getId(), this.timeoutMs,
+                ex == null ? null : ex.getMessage());
+        this.alarmProcessLogger.setAlert(false);
+        this.alarmProcessLogger.trace("execute timeout, timeout: %sms", this.timeoutMs);
+        return ExecuteStatus.TIMEOUT;
+    }
+
+    private String completeAlertMessage() {
+        // a test run may carry an unsaved template, it must not replace the compiled template of the alarm
+        Long templateAlarmId = alarmProcessLogger.isTest() ? null : alarmContract.getId();
+        String alertMessage = this.rule.alertMessage(templateAlarmId, alarmContract.getRuleContract().getAlertTemplate(),
+                this.alarmProcessLogger.getContext());
+        // 链接后置，支持自定义链接占位符替换
+        String shortLink = generateShortLinkService.generate(alarmProcessLogger);
+        if (Strings.isNullOrEmpty(shortLink)) {
+            return alertMessage;
+        }
+        if (shortLink.contains("${") || shortLink.contains("<#")) {
+            shortLink = this.rule.format(shortLink, this.alarmProcessLogger.getContext());
+        }
+        StringBuilder messageBuilder = new StringBuilder(alertMessage);
+        if (AlertTemplateType.MARKDOWN.equals(alarmContract.getRuleContract().getAlertTemplateType())) {
+            messageBuilder.append("\n\n").append("[查看全部](").append(shortLink).append(")");
+        } else {
+            messageBuilder.append("\n\n").append("详细请看: ").append(shortLink);
+        }
+        return messageBuilder.toString();
     }
 
 }
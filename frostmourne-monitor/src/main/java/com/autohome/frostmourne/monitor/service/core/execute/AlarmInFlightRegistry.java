@@ -0,0 +1,96 @@
+package com.autohome.frostmourne.monitor.service.core.execute;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 监控执行中登记表，同一监控同一时刻只有一次执行
+ * <p>
+ * 执行期间到达的第一次触发合并为一次排队执行，当前执行结束后立即再执行一次；之后到达的触发直接跳过并计数。
+ */
+public class AlarmInFlightRegistry {
+
+    private static final int IDLE = 0;
+
+    private static final int RUNNING = 1;
+
+    private static final int RUNNING_QUEUED = 2;
+
+    private final ConcurrentMap<Long, AtomicInteger> states = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, AtomicLong> skipCounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * 登记一次触发
+     *
+     * @param alarmId 监控id
+     * @return true: 没有正在进行的执行，调用方立即执行; false: 已合并到排队执行或被跳过
+     */
+    public boolean tryAcquire(Long alarmId) {
+        AtomicInteger state = states.computeIfAbsent(alarmId, key -> new AtomicInteger(IDLE));
+        while (true) {
+            int current = state.get();
+            if (current == IDLE) {
+                if (state.compareAndSet(IDLE, RUNNING)) {
+                    return true;
+                }
+            } else if (current == RUNNING) {
+                if (state.compareAndSet(RUNNING, RUNNING_QUEUED)) {
+                    coalescedCount.incrementAndGet();
+                    return false;
+                }
+            } else {
+                skipCounts.computeIfAbsent(alarmId, key -> new AtomicLong()).incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 一次执行结束
+     *
+     * @param alarmId 监控id
+     * @return true: 有排队的执行，调用方需要再执行一次
+     */
+    public boolean release(Long alarmId) {
+        AtomicInteger state = states.get(alarmId);
+        while (true) {
+            int current = state.get();
+            if (current == RUNNING_QUEUED) {
+                if (state.compareAndSet(RUNNING_QUEUED, RUNNING)) {
+                    return true;
+                }
+            } else if (state.compareAndSet(current, IDLE)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 执行异常结束，丢弃排队的执行
+     */
+    public void reset(Long alarmId) {
+        AtomicInteger state = states.get(alarmId);
+        if (state != null) {
+            state.set(IDLE);
+        }
+    }
+
+    public boolean isRunning(Long alarmId) {
+        AtomicInteger state = states.get(alarmId);
+        return state != null && state.get() != IDLE;
+    }
+
+    public long getSkipCount(Long alarmId) {
+        AtomicLong skipCount = skipCounts.get(alarmId);
+        return skipCount == null ? 0 : skipCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
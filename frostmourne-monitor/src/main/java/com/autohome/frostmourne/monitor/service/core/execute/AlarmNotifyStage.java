@@ -0,0 +1,156 @@
+package com.autohome.frostmourne.monitor.service.core.execute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 监控执行的通知和持久化阶段
+ * <p>
+ * 查询数据、判断规则和渲染消息在触发线程中完成，发送报警消息、写alert_log和alarm_log交给通知阶段，
+ * 慢的钉钉、邮件等发送不再占用查询线程。通知阶段分为多条lane，每条lane一个线程和一个有界队列，
+ * 同一监控按id固定落在一条lane上顺序执行，静默判断总能读到上一次报警的记录。lane队列满时提交方阻塞等待，形成背压。
+ */
+@Component
+public class AlarmNotifyStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlarmNotifyStage.class);
+
+    /**
+     * 停止时等待队列中任务执行完的时间
+     */
+    private static final long STOP_WAIT_MS = 10000;
+
+    @Value("${alarm.notify.lanes:16}")
+    private int laneCount;
+
+    @Value("${alarm.notify.queue.size:1000}")
+    private int queueSize;
+
+    private final List<Lane> lanes = new ArrayList<>();
+
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    private volatile boolean stopped = false;
+
+    @PostConstruct
+    private void start() {
+        for (int i = 0; i < Math.max(laneCount, 1); i++) {
+            Lane lane = new Lane(Math.max(queueSize, 1));
+            lane.thread.setName("AlarmNotifyStage-lane-" + i);
+            lane.thread.setDaemon(true);
+            lane.thread.start();
+            lanes.add(lane);
+        }
+    }
+
+    @PreDestroy
+    private void stop() {
+        stopped = true;
+        long deadline = System.currentTimeMillis() + STOP_WAIT_MS;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            } catch (InterruptedException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+            if (lane.thread.isAlive()) {
+                LOGGER.warn("stop notify lane {} with {} tasks in queue", lane.thread.getName(), lane.queue.size());
+                lane.thread.interrupt();
+            }
+        }
+        LOGGER.info("stop alarm notify stage");
+    }
+
+    /**
+     * 提交一次通知，队列满时阻塞等待
+     */
+    public void submit(Long alarmId, Runnable task) {
+        if (stopped) {
+            task.run();
+            return;
+        }
+        BlockingQueue<Runnable> queue = lanes.get((int) (Math.abs(alarmId) % lanes.size())).queue;
+        if (!queue.offer(task)) {
+            blockedCount.incrementAndGet();
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // interrupted while waiting, notify in the caller thread instead of dropping it
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * 所有lane中等待执行的通知数量
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (Lane lane : lanes) {
+            size += lane.queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * 单条lane中等待执行的最大通知数量
+     */
+    public int getMaxLaneQueueSize() {
+        int max = 0;
+        for (Lane lane : lanes) {
+            max = Math.max(max, lane.queue.size());
+        }
+        return max;
+    }
+
+    /**
+     * lane队列满、提交方阻塞等待的次数
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    private class Lane implements Runnable {
+
+        private final BlockingQueue<Runnable> queue;
+
+        private final Thread thread;
+
+        Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LOGGER.error("error when notify alarm", e);
+                }
+            }
+        }
+    }
+}
@@ -1,17 +1,46 @@
 package com.autohome.frostmourne.monitor.service.core.execute;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.autohome.frostmourne.monitor.contract.AlarmContract;
 import com.autohome.frostmourne.monitor.contract.enums.ExecuteStatus;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.AlarmLog;
 import org.joda.time.DateTime;
-
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * 一次监控执行的过程记录，保存到alarm_log.message
+ * <p>
+ * trace只记录时间和格式化参数，traceInfo时才格式化；每次执行最多记录MAX_TRACE_ENTRIES条，输出最多MAX_TRACE_LENGTH个字符。
+ * debug级别的记录(例如完整的上下文)只在开启debug时保存，默认只保存精简的记录。
+ */
 public class AlarmProcessLogger {
 
     private static final String LINE = System.getProperty("line.separator");
 
-    private StringBuilder trace = new StringBuilder();
+    public static final int MAX_TRACE_ENTRIES = 100;
+
+    public static final int MAX_TRACE_LENGTH = 16 * 1024;
+
+    /**
+     * compact输出中单个值的最大长度
+     */
+    public static final int MAX_VALUE_LENGTH = 200;
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormat.forPattern("[yyyy-MM-dd HH:mm:ss]");
+
+    private final List<TraceEntry> traces = new ArrayList<>();
+
+    private int droppedCount;
+
+    private boolean debug;
+
+    private boolean test;
 
     private ExecuteStatus executeStatus;
 
@@ -103,20 +132,127 @@ public class AlarmProcessLogger {
         this.alarmLog = alarmLog;
     }
 
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * 测试执行不发送消息，也不修改规则保存的状态和监控的缓存
+     */
+    public boolean isTest() {
+        return test;
+    }
+
+    public void setTest(boolean test) {
+        this.test = test;
+    }
+
+    /**
+     * 通知阶段和触发线程可能同时写入
+     */
     public void trace(String message) {
-        this.trace.append(currentTimeString()).append(" ").append(message).append(LINE);
+        add(message, null);
     }
 
+    /**
+     * 参数在traceInfo时才按String.format格式化
+     */
     public void trace(String format, Object... args) {
-        String message = String.format(format, args);
-        trace(message);
+        add(format, args);
+    }
+
+    /**
+     * 只在开启debug时记录
+     */
+    public void debug(String format, Object... args) {
+        if (debug) {
+            add(format, args);
+        }
     }
 
-    public String traceInfo() {
-        return this.trace.toString();
+    public synchronized String traceInfo() {
+        StringBuilder builder = new StringBuilder();
+        for (TraceEntry entry : traces) {
+            TIME_FORMATTER.printTo(builder, entry.time);
+            builder.append(" ").append(entry.message()).append(LINE);
+            if (builder.length() > MAX_TRACE_LENGTH) {
+                int truncated = builder.length() - MAX_TRACE_LENGTH;
+                builder.setLength(MAX_TRACE_LENGTH);
+                builder.append(LINE).append("... ").append(truncated).append(" chars truncated").append(LINE);
+                break;
+            }
+        }
+        if (droppedCount > 0) {
+            builder.append("... ").append(droppedCount).append(" traces dropped").append(LINE);
+        }
+        return builder.toString();
     }
 
-    private String currentTimeString() {
-        return DateTime.now().toString("[yyyy-MM-dd HH:mm:ss]");
+    /**
+     * 上下文的精简输出：大的值截断，集合只输出大小，toString时才生成。
+     * 调用时浅拷贝，之后对上下文的修改不影响已经记录的内容
+     */
+    public static Object compact(Map<String, Object> context) {
+        Map<String, Object> snapshot = new LinkedHashMap<>(context);
+        return new Object() {
+            @Override
+            public String toString() {
+                StringBuilder builder = new StringBuilder("{");
+                for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+                    if (builder.length() > 1) {
+                        builder.append(", ");
+                    }
+                    builder.append(entry.getKey()).append('=');
+                    Object value = entry.getValue();
+                    if (value instanceof Collection) {
+                        builder.append("[size: ").append(((Collection<?>) value).size()).append(']');
+                    } else if (value instanceof Map) {
+                        builder.append("{size: ").append(((Map<?, ?>) value).size()).append('}');
+                    } else {
+                        String text = String.valueOf(value);
+                        if (text.length() > MAX_VALUE_LENGTH) {
+                            builder.append(text, 0, MAX_VALUE_LENGTH).append("...");
+                        } else {
+                            builder.append(text);
+                        }
+                    }
+                }
+                return builder.append('}').toString();
+            }
+        };
+    }
+
+    private synchronized void add(String format, Object[] args) {
+        if (traces.size() >= MAX_TRACE_ENTRIES) {
+            droppedCount++;
+            return;
+        }
+        traces.add(new TraceEntry(System.currentTimeMillis(), format, args));
+    }
+
+    private static class TraceEntry {
+
+        private final long time;
+
+        private final String format;
+
+        private final Object[] args;
+
+        TraceEntry(long time, String format, Object[] args) {
+            this.time = time;
+            this.format = format;
+            this.args = args;
+        }
+
+        String message() {
+            if (args == null || args.length == 0) {
+                return format;
+            }
+            return String.format(format, args);
+        }
     }
 }
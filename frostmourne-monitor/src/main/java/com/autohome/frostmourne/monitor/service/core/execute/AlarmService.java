@@ -1,6 +1,11 @@
 package com.autohome.frostmourne.monitor.service.core.execute;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
 
 import com.autohome.frostmourne.monitor.contract.AlarmContract;
@@ -11,11 +16,18 @@ import com.autohome.frostmourne.monitor.service.core.metric.IMetric;
 import com.autohome.frostmourne.monitor.service.core.metric.IMetricService;
 import com.autohome.frostmourne.monitor.service.core.rule.IRule;
 import com.autohome.frostmourne.monitor.service.core.rule.IRuleService;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class AlarmService implements IAlarmService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlarmService.class);
+
     @Resource
     private IMetricService metricService;
 
@@ -31,9 +43,74 @@ public class AlarmService implements IAlarmService {
     @Resource
     private IGenerateShortLinkService generateShortLinkService;
 
+    @Resource
+    private AlarmNotifyStage alarmNotifyStage;
+
+    private final AlarmInFlightRegistry inFlightRegistry = new AlarmInFlightRegistry();
+
+    /**
+     * 执行记录中保存完整上下文的监控，测试执行总是保存完整上下文
+     */
+    private Set<Long> debugAlarmIds = Collections.emptySet();
+
+    @Value("${alarm.trace.debug.ids:}")
+    public void setDebugAlarmIds(String debugAlarmIds) {
+        this.debugAlarmIds = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(debugAlarmIds)
+                .stream().map(Long::valueOf).collect(Collectors.toSet());
+    }
+
+    /**
+     * 监控执行的默认时间预算
+     */
+    @Value("${alarm.execute.timeout.seconds:60}")
+    private long executeTimeoutSeconds;
+
+    /**
+     * 按数据源类型配置的时间预算，监控规则中的EXECUTE_TIMEOUT_SECONDS优先
+     */
+    private Map<String, Long> dataSourceTimeoutSeconds = Collections.emptyMap();
+
+    @Value("${alarm.execute.timeout.datasource:}")
+    public void setDataSourceTimeoutSeconds(String dataSourceTimeoutSeconds) {
+        Map<String, Long> timeoutMap = new HashMap<>();
+        Splitter.on(',').trimResults().omitEmptyStrings().withKeyValueSeparator(':').split(dataSourceTimeoutSeconds)
+                .forEach((type, seconds) -> timeoutMap.put(type.trim().toLowerCase(), Long.valueOf(seconds.trim())));
+        this.dataSourceTimeoutSeconds = timeoutMap;
+    }
+
     public AlarmProcessLogger run(Long alarmId, boolean test) {
-        AlarmContract alarmContract = this.alarmAdminService.findById(alarmId);
-        return run(alarmContract, test);
+        if (test) {
+            return run(this.alarmAdminService.findById(alarmId), true);
+        }
+        if (!inFlightRegistry.tryAcquire(alarmId)) {
+            LOGGER.warn("alarm is running, trigger coalesced or skipped. alarmId: {}, skipCount: {}", alarmId, inFlightRegistry.getSkipCount(alarmId));
+            AlarmProcessLogger alarmProcessLogger = new AlarmProcessLogger();
+            alarmProcessLogger.setAlarmId(alarmId);
+            alarmProcessLogger.setExecuteStatus(ExecuteStatus.WAITING);
+            alarmProcessLogger.trace("alarm is running, trigger coalesced or skipped");
+            return alarmProcessLogger;
+        }
+        boolean released = false;
+        try {
+            while (true) {
+                // check config version every time, the queued run uses the latest config
+                AlarmContract alarmContract = this.alarmAdminService.findCachedById(alarmId);
+                AlarmProcessLogger alarmProcessLogger = run(alarmContract, false);
+                if (!inFlightRegistry.release(alarmId)) {
+                    released = true;
+                    return alarmProcessLogger;
+                }
+            }
+        } finally {
+            if (!released) {
+                inFlightRegistry.reset(alarmId);
+            }
+        }
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return inFlightRegistry.getCoalescedCount();
     }
 
     public AlarmProcessLogger test(AlarmContract alarmContract) {
@@ -51,14 +128,13 @@ public class AlarmService implements IAlarmService {
         }
         IMetric metric = this.metricService.findMetric(dataSourceType, alarmContract.getMetricContract().getMetricType());
         AlarmExecutor alarmExecutor = new AlarmExecutor(alarmContract, rule, metric, generateShortLinkService);
+        alarmExecutor.setDebug(test || debugAlarmIds.contains(alarmContract.getId()));
+        alarmExecutor.setTest(test);
+        alarmExecutor.setTimeoutMs(findTimeoutSeconds(alarmContract, dataSourceType) * 1000);
         AlarmProcessLogger alarmProcessLogger = alarmExecutor.execute();
         if (!test) {
-            updateAlarmLastExeuteInfo(alarmContract.getId(), alarmProcessLogger.getStart().toDate(), alarmProcessLogger.getExecuteStatus());
-            if (alarmProcessLogger.getExecuteStatus() == ExecuteStatus.ERROR) {
-                alarmLog(alarmProcessLogger);
-            } else {
-                alertService.alert(alarmProcessLogger);
-            }
+            // notify and persist in the notify stage, slow senders do not hold the query thread
+            alarmNotifyStage.submit(alarmContract.getId(), () -> notifyAndPersist(alarmProcessLogger));
         } else {
             if(alarmProcessLogger.getAlert() != null && alarmProcessLogger.getAlert()) {
                 alarmProcessLogger.trace("test alarm, not send");
@@ -68,6 +144,33 @@ public class AlarmService implements IAlarmService {
         return alarmProcessLogger;
     }
 
+    private void notifyAndPersist(AlarmProcessLogger alarmProcessLogger) {
+        updateAlarmLastExeuteInfo(alarmProcessLogger.getAlarmContract().getId(), alarmProcessLogger.getStart().toDate(), alarmProcessLogger.getExecuteStatus());
+        if (alarmProcessLogger.getExecuteStatus() == ExecuteStatus.ERROR || alarmProcessLogger.getExecuteStatus() == ExecuteStatus.TIMEOUT) {
+            alarmLog(alarmProcessLogger);
+        } else {
+            alertService.alert(alarmProcessLogger);
+        }
+    }
+
+    private long findTimeoutSeconds(AlarmContract alarmContract, String dataSourceType) {
+        Map<String, String> ruleSettings = alarmContract.getRuleContract().getSettings();
+        if (ruleSettings != null && !Strings.isNullOrEmpty(ruleSettings.get("EXECUTE_TIMEOUT_SECONDS"))) {
+            try {
+                return Long.parseLong(ruleSettings.get("EXECUTE_TIMEOUT_SECONDS").trim());
+            } catch (NumberFormatException ex) {
+                LOGGER.warn("invalid EXECUTE_TIMEOUT_SECONDS, alarmId: {}, value: {}", alarmContract.getId(), ruleSettings.get("EXECUTE_TIMEOUT_SECONDS"));
+            }
+        }
+        if (dataSourceType != null) {
+            Long timeoutSeconds = dataSourceTimeoutSeconds.get(dataSourceType.toLowerCase());
+            if (timeoutSeconds != null) {
+                return timeoutSeconds;
+            }
+        }
+        return executeTimeoutSeconds;
+    }
+
     private void updateAlarmLastExeuteInfo(Long alarmId, Date executeTime, ExecuteStatus status) {
         alarmAdminService.updateAlarmLastExecuteInfo(alarmId, executeTime, status);
     }
@@ -9,4 +9,9 @@ public interface IAlarmService {
     AlarmProcessLogger test(AlarmContract alarmContract);
 
     AlarmProcessLogger run(AlarmContract alarmContract, boolean test);
+
+    /**
+     * 监控执行期间到达、被合并或跳过的触发次数
+     */
+    long getCoalescedCount();
 }
@@ -2,6 +2,7 @@ package com.autohome.frostmourne.monitor.service.core.metric;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiFunction;
 
 import com.autohome.frostmourne.monitor.contract.MetricContract;
 import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
@@ -15,12 +16,24 @@ public abstract class AbstractNumericMetric implements IMetric {
         return Integer.parseInt(ruleSettings.get("TIME_WINDOW"));
     }
 
+    /**
+     * 指标值能否按时间段相加，能相加时可以增量计算滑动窗口。数据源的时间范围必须是[start, end)
+     */
+    protected boolean incrementalSupported(MetricContract metricContract) {
+        return false;
+    }
+
     @Override
     public Map<String, Object> pullMetric(MetricContract metricContract, Map<String, String> ruleSettings) {
-        DateTime end = DateTime.now();
+        // align to second, alarms with the same query triggered in the same second share one query
+        DateTime end = DateTime.now().withMillisOfSecond(0);
         DateTime start = end.minusMinutes(findTimeWindowInMinutes(ruleSettings));
         Map<String, Object> result = new HashMap<>();
-        MetricData elasticsearchMetric = pullMetricData(start, end, metricContract, ruleSettings);
+        BiFunction<DateTime, DateTime, MetricData> loader = (sliceStart, sliceEnd) -> MetricSingleFlight.pull(this,
+                sliceStart, sliceEnd, metricContract, () -> pullMetricData(sliceStart, sliceEnd, metricContract, ruleSettings));
+        MetricData elasticsearchMetric = incrementalSupported(metricContract)
+                ? IncrementalWindow.pull(this, start, end, metricContract, loader)
+                : loader.apply(start, end);
         result.put("NUMBER", elasticsearchMetric.getMetricValue());
         if (elasticsearchMetric.getLatestDocument() != null) {
             result.putAll(elasticsearchMetric.getLatestDocument());
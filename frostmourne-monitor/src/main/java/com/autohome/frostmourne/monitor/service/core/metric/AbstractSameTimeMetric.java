@@ -1,15 +1,23 @@
 package com.autohome.frostmourne.monitor.service.core.metric;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.autohome.frostmourne.monitor.contract.MetricContract;
 import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
 import com.autohome.frostmourne.monitor.service.core.domain.ReferenceBag;
-import com.google.common.base.Splitter;
+import com.autohome.frostmourne.monitor.service.core.rule.RulePlan;
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,30 +29,27 @@ public abstract class AbstractSameTimeMetric implements IMetric {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSameTimeMetric.class);
 
     /**
-     * 获取间隔单位；HOUR: 小时；DAY: 天
-     *
-     * @param ruleSettings rule settings
-     * @return period unit value
+     * 等待对比时间范围查询结果的最长时间
      */
-    protected String findPeriodUnit(Map<String, String> ruleSettings) {
-        return ruleSettings.get("PERIOD_UNIT");
-    }
+    private static final long REFERENCE_TIMEOUT_MS = 60000;
 
     /**
-     * 时间间隔中文说明
-     *
-     * @param periodUnit periodUnit
-     * @return period unit description
+     * 所有同比指标共用的对比查询线程池，队列满时在调用线程中查询
      */
-    protected String findPeriodUnitDescription(String periodUnit) {
-        if (periodUnit.equalsIgnoreCase("HOUR")) {
-            return "小时";
-        } else if (periodUnit.equalsIgnoreCase("DAY")) {
-            return "天";
-        } else {
-            throw new IllegalArgumentException("unknown period unit: " + periodUnit);
-        }
-    }
+    private static final ThreadPoolExecutor REFERENCE_EXECUTOR = new ThreadPoolExecutor(16, 64,
+            60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(256),
+            new ThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SameTimeMetric-reference-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
 
     /**
      * 根据当前时间和间隔类型获取查询范围的结束时间
@@ -53,16 +58,15 @@ public abstract class AbstractSameTimeMetric implements IMetric {
      * @param periodUnit 时间间隔
      * @return 查询范围的结束时间
      */
-    protected DateTime findEnd(DateTime now, String periodUnit) {
-        DateTime end;
-        if (periodUnit.equalsIgnoreCase("HOUR")) {
-            end = new DateTime(now.getYear(), now.getMonthOfYear(), now.getDayOfMonth(), now.getHourOfDay(), 0);
-        } else if (periodUnit.equalsIgnoreCase("DAY")) {
-            end = new DateTime(now.getYear(), now.getMonthOfYear(), now.getDayOfMonth(), 0, 0);
-        } else {
-            throw new IllegalArgumentException("unknown period unit: " + periodUnit);
+    protected DateTime findEnd(DateTime now, RulePlan.PeriodUnit periodUnit) {
+        switch (periodUnit) {
+            case HOUR:
+                return new DateTime(now.getYear(), now.getMonthOfYear(), now.getDayOfMonth(), now.getHourOfDay(), 0);
+            case DAY:
+                return new DateTime(now.getYear(), now.getMonthOfYear(), now.getDayOfMonth(), 0, 0);
+            default:
+                throw new IllegalArgumentException("unknown period unit: " + periodUnit);
         }
-        return end;
     }
 
     /**
@@ -72,88 +76,99 @@ public abstract class AbstractSameTimeMetric implements IMetric {
      * @param periodUnit 间隔类型
      * @return start time
      */
-    protected DateTime findStart(DateTime end, String periodUnit) {
-        DateTime start;
-        if (periodUnit.equalsIgnoreCase("HOUR")) {
-            start = end.minusMinutes(60);
-        } else if (periodUnit.equalsIgnoreCase("DAY")) {
-            start = end.minusDays(1);
-        } else {
-            throw new IllegalArgumentException("unknown period unit: " + periodUnit);
+    protected DateTime findStart(DateTime end, RulePlan.PeriodUnit periodUnit) {
+        switch (periodUnit) {
+            case HOUR:
+                return end.minusMinutes(60);
+            case DAY:
+                return end.minusDays(1);
+            default:
+                throw new IllegalArgumentException("unknown period unit: " + periodUnit);
         }
-        return start;
     }
 
-    /**
-     * 获取同比比较的对比类型列表
-     *
-     * @param ruleSettings rule settings
-     * @return 比较类型列表
-     */
-    protected List<String> findReferenceTypeList(Map<String, String> ruleSettings) {
-        String referString = ruleSettings.get("REFERENCE_TYPE_LIST");
-        return Splitter.on(',').splitToList(referString);
-    }
-
-
     @Override
     public Map<String, Object> pullMetric(MetricContract metricContract, Map<String, String> ruleSettings) {
         Map<String, Object> resultMap = new HashMap<>();
-        String periodUnit = findPeriodUnit(ruleSettings);
+        RulePlan rulePlan = RulePlan.of(ruleSettings);
+        RulePlan.PeriodUnit periodUnit = rulePlan.getPeriodUnit();
         DateTime now = DateTime.now();
         DateTime end = findEnd(now, periodUnit);
         DateTime start = findStart(end, periodUnit);
         resultMap.put("startTime", start.toDateTimeISO().toString());
         resultMap.put("endTime", end.toDateTimeISO().toString());
-        resultMap.put("PERIOD_UNIT_DESCRIPTION", findPeriodUnitDescription(periodUnit));
-        Double current = null;
+        resultMap.put("PERIOD_UNIT_DESCRIPTION", periodUnit.getDescription());
 
-        MetricData elasticsearchMetric = pullMetricData(start, end, metricContract, ruleSettings);
-        current = toDouble(elasticsearchMetric.getMetricValue(), 0D);
-        resultMap.put("CURRENT", current);
-        List<String> referenceTypeList = findReferenceTypeList(ruleSettings);
+        // 对比时间范围的查询和当前时间范围的查询并行执行
         List<ReferenceBag> referenceDataList = new ArrayList<>();
+        List<Future<MetricData>> referenceFutures = new ArrayList<>();
+        for (RulePlan.ReferenceType referenceType : rulePlan.getReferenceTypes()) {
+            ReferenceBag referenceBag = new ReferenceBag();
+            referenceBag.setReferenceType(referenceType.name().toLowerCase());
+            referenceBag.setDescription(referenceType.getDescription());
+            DateTime referenceStart = referenceTime(start, referenceType);
+            DateTime referenceEnd = referenceTime(end, referenceType);
+            referenceDataList.add(referenceBag);
+            // 对比查询在线程池中使用当前执行的截止时间
+            referenceFutures.add(REFERENCE_EXECUTOR.submit(ExecuteDeadline.wrap(() -> HistoryMetricCache.get(this, referenceStart, referenceEnd, metricContract,
+                    () -> MetricSingleFlight.pull(this, referenceStart, referenceEnd, metricContract,
+                            () -> pullMetricData(referenceStart, referenceEnd, metricContract, ruleSettings))))));
+        }
+
         try {
-            for (String referenceType : referenceTypeList) {
-                ReferenceBag referenceBag = calculateReference(start, end, referenceType, metricContract, current, ruleSettings);
-                referenceDataList.add(referenceBag);
+            MetricData elasticsearchMetric = MetricSingleFlight.pull(this, start, end, metricContract,
+                    () -> pullMetricData(start, end, metricContract, ruleSettings));
+            Double current = toDouble(elasticsearchMetric.getMetricValue(), 0D);
+            resultMap.put("CURRENT", current);
+
+            long deadline = System.currentTimeMillis() + ExecuteDeadline.remainingMs(REFERENCE_TIMEOUT_MS);
+            for (int i = 0; i < referenceFutures.size(); i++) {
+                MetricData referenceMetric = awaitReference(referenceFutures.get(i), deadline);
+                Double metricValue = toDouble(referenceMetric.getMetricValue(), 0D);
+                ReferenceBag referenceBag = referenceDataList.get(i);
+                referenceBag.setValue(metricValue);
+                referenceBag.setPercentage(calculatePercentage(current, metricValue));
             }
             resultMap.put("REFERENCE_LIST", referenceDataList);
-        } catch (
-                IOException ex) {
-            throw new RuntimeException("error when calculateReference", ex);
+        } finally {
+            for (Future<MetricData> referenceFuture : referenceFutures) {
+                referenceFuture.cancel(true);
+            }
         }
 
         return resultMap;
     }
 
-    private ReferenceBag calculateReference(DateTime start, DateTime end, String referenceType,
-                                            MetricContract metricContract, Double current, Map<String, String> ruleSettings) throws IOException {
-        ReferenceBag referenceBag = new ReferenceBag();
-        referenceBag.setReferenceType(referenceType);
-        DateTime referenceStart;
-        DateTime referenceEnd;
-        if (referenceType.equalsIgnoreCase("DAY")) {
-            referenceStart = start.minusDays(1);
-            referenceEnd = end.minusDays(1);
-            referenceBag.setDescription("昨天");
-        } else if (referenceType.equalsIgnoreCase("WEEK")) {
-            referenceStart = start.minusDays(7);
-            referenceEnd = end.minusDays(7);
-            referenceBag.setDescription("上周");
-        } else if (referenceType.equalsIgnoreCase("MONTH")) {
-            referenceStart = start.minusMonths(1);
-            referenceEnd = end.minusMonths(1);
-            referenceBag.setDescription("上月");
-        } else {
-            throw new IllegalArgumentException("unknown reference_type: " + referenceType);
+    /**
+     * 对比时间范围中与time对应的时间
+     */
+    private DateTime referenceTime(DateTime time, RulePlan.ReferenceType referenceType) {
+        switch (referenceType) {
+            case DAY:
+                return time.minusDays(1);
+            case WEEK:
+                return time.minusDays(7);
+            case MONTH:
+                return time.minusMonths(1);
+            default:
+                throw new IllegalArgumentException("unknown reference_type: " + referenceType);
+        }
+    }
+
+    private MetricData awaitReference(Future<MetricData> referenceFuture, long deadline) {
+        try {
+            return referenceFuture.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted when calculateReference", ex);
+        } catch (TimeoutException ex) {
+            throw new RuntimeException("timeout when calculateReference", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("error when calculateReference", ex.getCause());
         }
-        MetricData elasticsearchMetric = pullMetricData(referenceStart, referenceEnd, metricContract, ruleSettings);
-        Double metricValue = toDouble(elasticsearchMetric.getMetricValue(), 0D);
-        Double percentage = calculatePercentage(current, metricValue);
-        referenceBag.setValue(metricValue);
-        referenceBag.setPercentage(percentage);
-        return referenceBag;
     }
 
     private Double toDouble(Object value, Double defaultValue) {
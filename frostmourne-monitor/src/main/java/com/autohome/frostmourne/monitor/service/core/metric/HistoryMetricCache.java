@@ -0,0 +1,59 @@
+package com.autohome.frostmourne.monitor.service.core.metric;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.autohome.frostmourne.monitor.contract.MetricContract;
+import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.joda.time.DateTime;
+
+/**
+ * 历史时间范围的指标查询结果缓存
+ * <p>
+ * 同比监控每次执行都要查询昨天、上周、上月同一时间范围的数据，这些时间范围早已结束，结果不会再变化。
+ * 结束时间早于SETTLED_MS之前的查询按查询条件和时间范围缓存，重复执行时只有当前时间范围需要查询数据源。
+ * 缓存的MetricData被共享，不能修改
+ */
+public final class HistoryMetricCache {
+
+    private static final long MAX_SIZE = 10000;
+
+    /**
+     * 结束时间早于该时长之前的时间范围认为数据已经完整，不会再有延迟写入的数据
+     */
+    private static final long SETTLED_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final long EXPIRE_HOURS = 24;
+
+    private static final Cache<String, MetricData> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(EXPIRE_HOURS, TimeUnit.HOURS)
+            .build();
+
+    private HistoryMetricCache() {
+    }
+
+    public static MetricData get(IMetric metric, DateTime start, DateTime end, MetricContract metricContract,
+                                 Supplier<MetricData> loader) {
+        if (end.getMillis() > System.currentTimeMillis() - SETTLED_MS) {
+            return loader.get();
+        }
+        try {
+            // failed query is not cached
+            return CACHE.get(MetricSingleFlight.key(metric, start, end, metricContract), loader::get);
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("error when pullMetricData", ex.getCause());
+        }
+    }
+
+    public static long size() {
+        return CACHE.size();
+    }
+}
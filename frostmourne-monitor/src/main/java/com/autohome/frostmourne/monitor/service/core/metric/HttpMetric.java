@@ -3,12 +3,15 @@ package com.autohome.frostmourne.monitor.service.core.metric;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 
 import com.autohome.frostmourne.monitor.contract.MetricContract;
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
+import okhttp3.Call;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -48,7 +51,13 @@ public class HttpMetric implements IMetric {
                 }
             }
             Request request = requestBuilder.build();
-            try (Response response = okHttp3Client.newCall(request).execute();
+            Call call = okHttp3Client.newCall(request);
+            if (ExecuteDeadline.isSet()) {
+                // 整个调用(连接、发送、读取)不超过执行的剩余时间
+                ExecuteDeadline.check();
+                call.timeout().timeout(ExecuteDeadline.remainingMs(), TimeUnit.MILLISECONDS);
+            }
+            try (Response response = call.execute();
                  ResponseBody responseBody = response.body()) {
                 Long end = System.currentTimeMillis();
                 result.put("HTTP_COST", end - start);
@@ -0,0 +1,226 @@
+package com.autohome.frostmourne.monitor.service.core.metric;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import com.autohome.frostmourne.monitor.contract.MetricContract;
+import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 数值监控的增量滑动窗口
+ * <p>
+ * TIME_WINDOW为60分钟、每分钟执行一次的监控，每次都查询完整的60分钟，其中59分钟上次已经统计过。
+ * count和sum可以按时间段相加，按查询条件和窗口长度保存上次窗口的值，本次只查询新增的时间段[上次结束时间, 本次结束时间)，
+ * 减去滑出窗口的时间段。新增时间段的结果按段保存，滑出窗口时直接减去，不再查询。
+ * 每隔一段时间或者两次执行间隔超过窗口长度时完整查询一次，修正延迟写入的数据带来的误差。查询失败后下次完整查询
+ */
+@Component
+public class IncrementalWindow {
+
+    private static final long MAX_SIZE = 10000;
+
+    private static final long EXPIRE_HOURS = 2;
+
+    private static volatile boolean enabled = false;
+
+    private static volatile long resyncMs = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Cache<String, WindowState> STATES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterAccess(EXPIRE_HOURS, TimeUnit.HOURS)
+            .build();
+
+    private static final AtomicLong FULL_COUNT = new AtomicLong();
+
+    private static final AtomicLong INCREMENTAL_COUNT = new AtomicLong();
+
+    @Value("${metric.window.incremental.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        IncrementalWindow.enabled = enabled;
+    }
+
+    @Value("${metric.window.resync.minutes:10}")
+    public void setResyncMinutes(long resyncMinutes) {
+        IncrementalWindow.resyncMs = TimeUnit.MINUTES.toMillis(resyncMinutes);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询[start, end)的count或sum，loader查询任意时间段
+     */
+    public static MetricData pull(IMetric metric, DateTime start, DateTime end, MetricContract metricContract,
+                                  BiFunction<DateTime, DateTime, MetricData> loader) {
+        if (!enabled) {
+            return loader.apply(start, end);
+        }
+        String key = MetricSingleFlight.queryKey(metric, metricContract) + '|' + (end.getMillis() - start.getMillis());
+        WindowState state;
+        try {
+            state = STATES.get(key, WindowState::new);
+        } catch (ExecutionException ex) {
+            return loader.apply(start, end);
+        }
+        boolean count = "count".equalsIgnoreCase(metricContract.getAggregationType());
+        synchronized (state) {
+            try {
+                return state.pull(start, end, count, loader);
+            } catch (RuntimeException | Error ex) {
+                state.valid = false;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * 完整查询窗口的次数
+     */
+    public static long getFullCount() {
+        return FULL_COUNT.get();
+    }
+
+    /**
+     * 只查询新增时间段的次数
+     */
+    public static long getIncrementalCount() {
+        return INCREMENTAL_COUNT.get();
+    }
+
+    public static long size() {
+        return STATES.size();
+    }
+
+    private static double numberOf(MetricData metricData) {
+        Object value = metricData.getMetricValue();
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return value == null ? 0D : Double.parseDouble(value.toString());
+    }
+
+    /**
+     * 一个查询条件和窗口长度上次的结果
+     */
+    private static class WindowState {
+
+        private boolean valid = false;
+
+        private long start;
+
+        private long end;
+
+        private double value;
+
+        private Map<String, Object> latestDocument;
+
+        private long syncedAt;
+
+        /**
+         * 增量查询过的时间段，key为开始时间
+         */
+        private final TreeMap<Long, Slice> slices = new TreeMap<>();
+
+        MetricData pull(DateTime windowStart, DateTime windowEnd, boolean count,
+                        BiFunction<DateTime, DateTime, MetricData> loader) {
+            long newStart = windowStart.getMillis();
+            long newEnd = windowEnd.getMillis();
+            if (valid && newEnd == end) {
+                return result(count);
+            }
+            if (valid && newEnd < end) {
+                // an earlier window arrived late, do not move the state backward
+                return loader.apply(windowStart, windowEnd);
+            }
+            long now = System.currentTimeMillis();
+            if (!valid || newStart >= end || now - syncedAt >= resyncMs) {
+                MetricData metricData = loader.apply(windowStart, windowEnd);
+                FULL_COUNT.incrementAndGet();
+                value = numberOf(metricData);
+                latestDocument = metricData.getLatestDocument();
+                syncedAt = now;
+                // slices queried before may miss late data counted by this query, never subtract them
+                slices.clear();
+                moveTo(newStart, newEnd);
+                return metricData;
+            }
+            MetricData head = loader.apply(new DateTime(end), windowEnd);
+            double headValue = numberOf(head);
+            slices.put(end, new Slice(newEnd, headValue));
+            double evicted = evicted(newStart, loader);
+            INCREMENTAL_COUNT.incrementAndGet();
+            value = value + headValue - evicted;
+            if (head.getLatestDocument() != null) {
+                latestDocument = head.getLatestDocument();
+            }
+            moveTo(newStart, newEnd);
+            return result(count);
+        }
+
+        /**
+         * 滑出窗口的时间段[start, newStart)，能由保存的时间段拼接时直接使用，否则查询
+         */
+        private double evicted(long newStart, BiFunction<DateTime, DateTime, MetricData> loader) {
+            if (newStart <= start) {
+                return 0D;
+            }
+            double sum = 0D;
+            long cursor = start;
+            while (cursor < newStart) {
+                Slice slice = slices.get(cursor);
+                if (slice == null || slice.end > newStart) {
+                    break;
+                }
+                sum += slice.value;
+                cursor = slice.end;
+            }
+            if (cursor < newStart) {
+                sum += numberOf(loader.apply(new DateTime(cursor), new DateTime(newStart)));
+            }
+            return sum;
+        }
+
+        private void moveTo(long newStart, long newEnd) {
+            start = newStart;
+            end = newEnd;
+            valid = true;
+            slices.headMap(newStart).clear();
+        }
+
+        private MetricData result(boolean count) {
+            MetricData metricData = new MetricData();
+            if (count) {
+                long total = Math.max(Math.round(value), 0L);
+                metricData.setMetricValue(total);
+                // latest document of the last window is still inside when the window is not empty
+                metricData.setLatestDocument(total > 0 ? latestDocument : null);
+            } else {
+                metricData.setMetricValue(value);
+                metricData.setLatestDocument(latestDocument);
+            }
+            return metricData;
+        }
+    }
+
+    private static class Slice {
+
+        private final long end;
+
+        private final double value;
+
+        Slice(long end, double value) {
+            this.end = end;
+            this.value = value;
+        }
+    }
+}
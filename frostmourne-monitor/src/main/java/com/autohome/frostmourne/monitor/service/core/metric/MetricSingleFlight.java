@@ -0,0 +1,113 @@
+package com.autohome.frostmourne.monitor.service.core.metric;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.autohome.frostmourne.monitor.contract.MetricContract;
+import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
+import org.joda.time.DateTime;
+
+/**
+ * 合并相同的指标查询
+ * <p>
+ * 很多监控使用相同的数据源、查询语句和时间窗口，只是阈值和接收人不同，同一秒触发时各自查询一次。
+ * 按指标类型、数据源、数据名、查询条件、聚合方式和时间范围生成key，同一个key正在查询时，后到的请求等待并共享这一次的结果。
+ * 只合并同时进行的查询，查询结束后不缓存结果。共享的MetricData不能修改。等待方最多等到自己的执行截止时间
+ */
+public final class MetricSingleFlight {
+
+    private static final ConcurrentMap<String, CompletableFuture<MetricData>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private static final AtomicLong SHARED_COUNT = new AtomicLong();
+
+    private MetricSingleFlight() {
+    }
+
+    public static MetricData pull(IMetric metric, DateTime start, DateTime end, MetricContract metricContract,
+                                  Supplier<MetricData> loader) {
+        String key = key(metric, start, end, metricContract);
+        CompletableFuture<MetricData> future = new CompletableFuture<>();
+        CompletableFuture<MetricData> inFlight = IN_FLIGHT.putIfAbsent(key, future);
+        if (inFlight != null) {
+            SHARED_COUNT.incrementAndGet();
+            return await(inFlight);
+        }
+        try {
+            MetricData metricData = loader.get();
+            future.complete(metricData);
+            return metricData;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            IN_FLIGHT.remove(key, future);
+        }
+    }
+
+    /**
+     * 共享了其他请求查询结果的次数
+     */
+    public static long getSharedCount() {
+        return SHARED_COUNT.get();
+    }
+
+    public static int getInFlightSize() {
+        return IN_FLIGHT.size();
+    }
+
+    private static MetricData await(CompletableFuture<MetricData> inFlight) {
+        try {
+            if (!ExecuteDeadline.isSet()) {
+                return inFlight.get();
+            }
+            return inFlight.get(ExecuteDeadline.remainingMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            throw new RuntimeException("timeout when waiting for metric query", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted when waiting for metric query", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("error when pullMetricData", ex.getCause());
+        }
+    }
+
+    /**
+     * 查询条件和时间范围相同的指标查询得到相同的key
+     */
+    static String key(IMetric metric, DateTime start, DateTime end, MetricContract metricContract) {
+        return queryKey(metric, metricContract) + '|' + start.getMillis() + '|' + end.getMillis();
+    }
+
+    /**
+     * 不含时间范围的查询条件key
+     */
+    static String queryKey(IMetric metric, MetricContract metricContract) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(metric.getClass().getName())
+                .append('|').append(metricContract.getDataSourceId())
+                .append('|').append(metricContract.getDataNameId())
+                .append('|').append(metricContract.getDataName())
+                .append('|').append(metricContract.getAggregationType())
+                .append('|').append(metricContract.getAggregationField())
+                .append('|').append(metricContract.getQueryString())
+                .append('|').append(metricContract.getPostData())
+                .append('|').append(sorted(metricContract.getProperties()));
+        return builder.toString();
+    }
+
+    private static Object sorted(Map<String, Object> properties) {
+        return properties == null ? null : new TreeMap<>(properties);
+    }
+}
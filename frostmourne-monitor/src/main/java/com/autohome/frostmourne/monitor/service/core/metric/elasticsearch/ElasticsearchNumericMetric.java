@@ -27,4 +27,10 @@ public class ElasticsearchNumericMetric extends AbstractNumericMetric {
             throw new RuntimeException("error when pullMetricData", ex);
         }
     }
+
+    @Override
+    protected boolean incrementalSupported(MetricContract metricContract) {
+        String aggType = metricContract.getAggregationType();
+        return "count".equalsIgnoreCase(aggType) || "sum".equalsIgnoreCase(aggType);
+    }
 }
@@ -24,4 +24,9 @@ public class ClickhouseNumericMetric extends AbstractNumericMetric {
         return dataQuery.queryMetricValue(start, end, metricContract);
     }
 
+    @Override
+    protected boolean incrementalSupported(MetricContract metricContract) {
+        return MysqlNumericMetric.rowCountQuery(metricContract.getQueryString());
+    }
+
 }
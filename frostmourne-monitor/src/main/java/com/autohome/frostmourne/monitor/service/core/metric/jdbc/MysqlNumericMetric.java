@@ -24,4 +24,21 @@ public class MysqlNumericMetric extends AbstractNumericMetric {
         return mysqlDataQuery.queryMetricValue(start, end, metricContract);
     }
 
+    @Override
+    protected boolean incrementalSupported(MetricContract metricContract) {
+        return rowCountQuery(metricContract.getQueryString());
+    }
+
+    /**
+     * 指标值是查询结果的行数，去重、分组、限制行数的查询不能按时间段相加
+     */
+    static boolean rowCountQuery(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        String lowerSql = sql.toLowerCase();
+        return !lowerSql.contains("distinct") && !lowerSql.contains("group by")
+                && !lowerSql.contains("limit") && !lowerSql.contains("union");
+    }
+
 }
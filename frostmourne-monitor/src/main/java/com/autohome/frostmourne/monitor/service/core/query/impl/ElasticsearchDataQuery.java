@@ -18,7 +18,9 @@ import com.autohome.frostmourne.monitor.dao.elasticsearch.ElasticsearchSourceMan
 import com.autohome.frostmourne.monitor.dao.elasticsearch.EsRestClientContainer;
 import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
 import com.autohome.frostmourne.monitor.service.core.query.IElasticsearchDataQuery;
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
 import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
@@ -167,6 +169,7 @@ public class ElasticsearchDataQuery implements IElasticsearchDataQuery {
         String datePattern = dataNameProperties.get("timePattern");
         String[] indices = esRestClientContainer.buildIndices(start, end, indexPrefix, datePattern);
         Long count = null;
+        ExecuteDeadline.check();
         try {
             count = esRestClientContainer.totalCount(boolQueryBuilder, indices);
         } catch (Exception ex) {
@@ -190,7 +193,15 @@ public class ElasticsearchDataQuery implements IElasticsearchDataQuery {
         SearchResponse searchResponse = null;
         int tryCount = 3;
         while (tryCount > 0) {
+            // 按执行剩余时间限制elasticsearch端的查询时间，超时返回的部分结果不能使用
+            ExecuteDeadline.check();
+            if (ExecuteDeadline.isSet()) {
+                searchSourceBuilder.timeout(TimeValue.timeValueMillis(ExecuteDeadline.remainingMs()));
+            }
             searchResponse = esRestClientContainer.fetchHighLevelClient().search(searchRequest, RequestOptions.DEFAULT);
+            if (searchResponse.isTimedOut()) {
+                throw new UncheckedTimeoutException("elasticsearch search timed out, took: " + searchResponse.getTook());
+            }
             int hits = searchResponse.getHits().getHits().length;
             if (hits == 0 && tryCount == 1) {
                 LOGGER.error("totalCount {}, but hits length is 0, query: {}, start: {}, end: {}", count, metricContract.getQueryString(), start.toString(), end.toString());
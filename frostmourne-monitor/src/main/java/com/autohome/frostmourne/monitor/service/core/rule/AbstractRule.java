@@ -34,13 +34,22 @@ public abstract class AbstractRule implements IRule {
         context.put(ContextConstant.ALARM_ID, alarmProcessLogger.getAlarmContract().getId());
         context.put(ContextConstant.ALARM_NAME, alarmProcessLogger.getAlarmContract().getAlarmName());
 
-        alarmProcessLogger.trace("env = %s", JacksonUtil.serialize(context));
+        if (alarmProcessLogger.isDebug()) {
+            alarmProcessLogger.debug("env = %s", JacksonUtil.serialize(context));
+        } else {
+            // large values such as the latest document are truncated
+            alarmProcessLogger.trace("env = %s", AlarmProcessLogger.compact(context));
+        }
         alarmProcessLogger.setContext(context);
         return context;
     }
 
-    public String alertMessage(String alertTemplate, Map<String, Object> context) {
-        return this.templateService.format(alertTemplate, context);
+    public String alertMessage(Long alarmId, String alertTemplate, Map<String, Object> context) {
+        return this.templateService.format(alarmId, alertTemplate, context);
+    }
+
+    public String format(String text, Map<String, Object> context) {
+        return this.templateService.format(text, context);
     }
 
 }
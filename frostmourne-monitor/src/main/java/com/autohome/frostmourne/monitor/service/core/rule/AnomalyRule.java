@@ -0,0 +1,115 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import java.util.Map;
+
+import com.autohome.frostmourne.monitor.contract.MetricContract;
+import com.autohome.frostmourne.monitor.contract.RuleContract;
+import com.autohome.frostmourne.monitor.service.core.execute.AlarmProcessLogger;
+import com.autohome.frostmourne.monitor.service.core.metric.IMetric;
+import com.autohome.frostmourne.monitor.service.core.template.ITemplateService;
+import org.joda.time.DateTime;
+
+/**
+ * 异常检测规则
+ * <p>
+ * 用每次执行得到的NUMBER更新指数加权的均值和方差，当前值偏离均值超过ANOMALY_SIGMA倍标准差时报警。
+ * 只查询当前时间窗口，不需要同比的历史查询。设置ANOMALY_SEASON后按小时或星期中的小时分别统计基线
+ */
+public class AnomalyRule extends AbstractRule {
+
+    private AnomalyStateStore anomalyStateStore;
+
+    public AnomalyRule(ITemplateService templateService, AnomalyStateStore anomalyStateStore) {
+        super(templateService);
+        this.anomalyStateStore = anomalyStateStore;
+    }
+
+    @Override
+    public boolean verify(AlarmProcessLogger alarmProcessLogger, RuleContract ruleContract, MetricContract metricContract, IMetric metric) {
+        RulePlan rulePlan = RulePlan.of(ruleContract.getSettings());
+        RulePlan.SeasonType seasonType = rulePlan.getSeasonType();
+        Map<String, Object> context = context(alarmProcessLogger, ruleContract, metricContract, metric);
+        double number = findNumber(context);
+        Long alarmId = alarmProcessLogger.getAlarmContract().getId();
+        // test runs and unsaved alarms only read the baseline
+        boolean readOnly = alarmProcessLogger.isTest() || alarmId == null;
+        String signature = signature(ruleContract, metricContract, seasonType);
+
+        AnomalyState state = readOnly ? anomalyStateStore.peek(alarmId, signature) : anomalyStateStore.find(alarmId, signature);
+        boolean anomalous;
+        synchronized (state) {
+            AnomalyState.Baseline global = state.getGlobal();
+            AnomalyState.Baseline slot = null;
+            if (seasonType != RulePlan.SeasonType.NONE) {
+                int slotIndex = seasonType.slot(DateTime.now());
+                slot = readOnly ? state.getSlots().get(slotIndex) : state.slot(slotIndex);
+            }
+            // the season slot needs its own warmup, the global baseline is used before that
+            AnomalyState.Baseline baseline = slot != null && slot.getCount() >= rulePlan.getAnomalyWarmup() ? slot : global;
+            double deviation = number - baseline.getMean();
+            double std = baseline.std();
+            context.put("ANOMALY_MEAN", baseline.getMean());
+            context.put("ANOMALY_STD", std);
+            context.put("ANOMALY_SCORE", std > 0 ? deviation / std : 0D);
+            context.put("ANOMALY_SAMPLES", baseline.getCount());
+            anomalous = baseline.getCount() >= rulePlan.getAnomalyWarmup() && verifyDeviation(deviation, std, rulePlan);
+
+            if (!readOnly) {
+                global.update(number, rulePlan.getAnomalyAlpha());
+                if (slot != null) {
+                    slot.update(number, rulePlan.getAnomalyAlpha());
+                }
+            }
+        }
+        alarmProcessLogger.trace("anomaly mean: %s, std: %s, samples: %s", context.get("ANOMALY_MEAN"),
+                context.get("ANOMALY_STD"), context.get("ANOMALY_SAMPLES"));
+        if (readOnly) {
+            alarmProcessLogger.trace("test run, anomaly state not updated");
+        } else {
+            anomalyStateStore.markDirty(alarmId);
+        }
+        return anomalous;
+    }
+
+    boolean verifyDeviation(double deviation, double std, RulePlan rulePlan) {
+        double limit = rulePlan.getAnomalySigma() * std;
+        if (Math.abs(deviation) <= limit || Math.abs(deviation) < rulePlan.getAnomalyMinDeviation()) {
+            return false;
+        }
+        RulePlan.CompareType compareType = rulePlan.getCompareType(RulePlan.CompareType.BOTH);
+        switch (compareType) {
+            case INCREASE:
+                return deviation > 0;
+            case DECREASE:
+                return deviation < 0;
+            case BOTH:
+                return true;
+            default:
+                throw new IllegalArgumentException("unknown compare_type: " + compareType);
+        }
+    }
+
+    /**
+     * 查询条件、时间窗口或周期类型变化后，之前的统计不能再使用
+     */
+    private String signature(RuleContract ruleContract, MetricContract metricContract, RulePlan.SeasonType seasonType) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(metricContract.getDataSourceId())
+                .append('|').append(metricContract.getDataName())
+                .append('|').append(metricContract.getQueryString())
+                .append('|').append(metricContract.getAggregationType())
+                .append('|').append(metricContract.getAggregationField())
+                .append('|').append(metricContract.getPostData())
+                .append('|').append(ruleContract.getSettings().get("TIME_WINDOW"))
+                .append('|').append(seasonType);
+        return Integer.toHexString(builder.toString().hashCode()) + '-' + seasonType;
+    }
+
+    private double findNumber(Map<String, Object> context) {
+        Object number = context.get("NUMBER");
+        if (number instanceof Number) {
+            return ((Number) number).doubleValue();
+        }
+        return Double.parseDouble(number.toString());
+    }
+}
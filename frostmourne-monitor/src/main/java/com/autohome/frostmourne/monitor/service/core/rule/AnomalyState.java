@@ -0,0 +1,106 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 异常检测规则的统计状态
+ * <p>
+ * 指数加权的均值和方差，global不区分周期，slots按周期位置(小时、星期中的小时)分别统计。
+ * 周期位置的样本不足时使用global判断。作为json保存到rule_state表
+ */
+public class AnomalyState {
+
+    /**
+     * 查询条件和周期类型，变化后状态重新统计
+     */
+    private String signature;
+
+    private Baseline global = new Baseline();
+
+    private Map<Integer, Baseline> slots = new HashMap<>();
+
+    public AnomalyState() {
+    }
+
+    public AnomalyState(String signature) {
+        this.signature = signature;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    public Baseline getGlobal() {
+        return global;
+    }
+
+    public void setGlobal(Baseline global) {
+        this.global = global;
+    }
+
+    public Map<Integer, Baseline> getSlots() {
+        return slots;
+    }
+
+    public void setSlots(Map<Integer, Baseline> slots) {
+        this.slots = slots;
+    }
+
+    public Baseline slot(int slot) {
+        return slots.computeIfAbsent(slot, key -> new Baseline());
+    }
+
+    public static class Baseline {
+
+        private long count;
+
+        private double mean;
+
+        private double variance;
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public void setMean(double mean) {
+            this.mean = mean;
+        }
+
+        public double getVariance() {
+            return variance;
+        }
+
+        public void setVariance(double variance) {
+            this.variance = variance;
+        }
+
+        public double std() {
+            return Math.sqrt(variance);
+        }
+
+        /**
+         * 样本较少时权重取1/count，接近算术平均，之后按alpha衰减
+         */
+        public void update(double value, double alpha) {
+            count++;
+            double weight = Math.max(alpha, 1D / count);
+            double diff = value - mean;
+            double increment = weight * diff;
+            mean += increment;
+            variance = (1 - weight) * (variance + diff * increment);
+        }
+    }
+}
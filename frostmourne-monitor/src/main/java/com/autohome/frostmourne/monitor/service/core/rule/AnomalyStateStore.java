@@ -0,0 +1,218 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import com.autohome.frostmourne.core.jackson.JacksonUtil;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.RuleState;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IRuleStateRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 异常检测规则的状态
+ * <p>
+ * 状态保存在内存中，每次执行只更新内存，定时把变化的状态写入rule_state表，停止时全部写入。
+ * 第一次使用时从rule_state表加载。一段时间没有执行的状态从内存移除(移除前写入)。
+ * rule_state.version每次写入加1，按version写入，不会覆盖其他节点写入的更新状态；
+ * 监控切换到其他节点执行后再回到本节点时，内存中的状态可能已经过期，距上次检查超过checkpoint间隔后，
+ * 执行前比较version，数据库中更新时重新加载
+ */
+@Component
+public class AnomalyStateStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnomalyStateStore.class);
+
+    private static final long EXPIRE_HOURS = 1;
+
+    @Resource
+    private IRuleStateRepository ruleStateRepository;
+
+    @Value("${rule.anomaly.checkpoint.seconds:60}")
+    private long checkpointSeconds;
+
+    private final Set<Long> dirtyAlarms = ConcurrentHashMap.newKeySet();
+
+    private final Cache<Long, StateEntry> states = CacheBuilder.newBuilder()
+            .expireAfterAccess(EXPIRE_HOURS, TimeUnit.HOURS)
+            .<Long, StateEntry>removalListener(notification -> {
+                if (notification.getCause() != RemovalCause.EXPLICIT && notification.getCause() != RemovalCause.REPLACED) {
+                    save(notification.getKey(), notification.getValue());
+                }
+            })
+            .build();
+
+    private ScheduledExecutorService checkpointExecutor;
+
+    @PostConstruct
+    private void start() {
+        checkpointExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AnomalyStateCheckpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(checkpointSeconds, 1);
+        checkpointExecutor.scheduleWithFixedDelay(this::checkpoint, period, period, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        checkpointExecutor.shutdownNow();
+        checkpoint();
+    }
+
+    /**
+     * 监控的状态，signature变化后返回新的状态。调用方修改状态时需要锁住返回的对象，修改后调用markDirty
+     */
+    public AnomalyState find(Long alarmId, String signature) {
+        StateEntry entry;
+        try {
+            entry = states.get(alarmId, () -> load(alarmId));
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("error when load anomaly state, alarmId: " + alarmId, ex.getCause());
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedAt >= TimeUnit.SECONDS.toMillis(Math.max(checkpointSeconds, 1))) {
+            entry.checkedAt = now;
+            if (ruleStateRepository.findVersion(alarmId).orElse(0L) > entry.version) {
+                // written by the node the alarm ran on meanwhile, the copy here is stale
+                StateEntry loaded = load(alarmId);
+                if (!states.asMap().replace(alarmId, entry, loaded)) {
+                    return find(alarmId, signature);
+                }
+                dirtyAlarms.remove(alarmId);
+                LOGGER.info("anomaly state of alarm {} is reloaded, version {} -> {}", alarmId, entry.version, loaded.version);
+                entry = loaded;
+            }
+        }
+        if (!signature.equals(entry.state.getSignature())) {
+            StateEntry resetEntry = new StateEntry(new AnomalyState(signature), entry.version);
+            if (!states.asMap().replace(alarmId, entry, resetEntry)) {
+                return find(alarmId, signature);
+            }
+            LOGGER.info("anomaly state of alarm {} is reset, signature changed", alarmId);
+            entry = resetEntry;
+        }
+        return entry.state;
+    }
+
+    /**
+     * 测试执行使用的状态，不加载到内存也不重新统计，调用方只能读取。没有监控id或signature变化时返回空的状态
+     */
+    public AnomalyState peek(Long alarmId, String signature) {
+        if (alarmId == null) {
+            return new AnomalyState(signature);
+        }
+        StateEntry entry = states.getIfPresent(alarmId);
+        if (entry == null) {
+            entry = load(alarmId);
+        }
+        return signature.equals(entry.state.getSignature()) ? entry.state : new AnomalyState(signature);
+    }
+
+    public void markDirty(Long alarmId) {
+        dirtyAlarms.add(alarmId);
+    }
+
+    public void remove(Long alarmId) {
+        states.invalidate(alarmId);
+        dirtyAlarms.remove(alarmId);
+        ruleStateRepository.deleteByAlarm(alarmId);
+    }
+
+    /**
+     * 写入有变化的状态
+     */
+    public void checkpoint() {
+        states.cleanUp();
+        List<Long> alarmIds = new ArrayList<>(dirtyAlarms);
+        for (Long alarmId : alarmIds) {
+            StateEntry entry = states.getIfPresent(alarmId);
+            if (entry != null) {
+                if (!save(alarmId, entry)) {
+                    // a newer state was written by another node, reload on next execution
+                    states.asMap().remove(alarmId, entry);
+                }
+            } else {
+                dirtyAlarms.remove(alarmId);
+            }
+        }
+    }
+
+    /**
+     * @return 其他节点已经写入更新的状态时返回false
+     */
+    private boolean save(Long alarmId, StateEntry entry) {
+        if (!dirtyAlarms.remove(alarmId)) {
+            return true;
+        }
+        try {
+            String stateValue;
+            synchronized (entry.state) {
+                stateValue = JacksonUtil.serialize(entry.state);
+            }
+            RuleState ruleState = new RuleState();
+            ruleState.setAlarmId(alarmId);
+            ruleState.setStateValue(stateValue);
+            ruleState.setVersion(entry.version);
+            ruleState.setModifyAt(new Date());
+            if (!ruleStateRepository.save(ruleState)) {
+                LOGGER.info("anomaly state of alarm {} is not saved, a newer version was written by another node", alarmId);
+                return false;
+            }
+            entry.version++;
+        } catch (Exception ex) {
+            dirtyAlarms.add(alarmId);
+            LOGGER.error("error when save anomaly state, alarmId: {}", alarmId, ex);
+        }
+        return true;
+    }
+
+    private StateEntry load(Long alarmId) {
+        Optional<RuleState> optionalRuleState = ruleStateRepository.findByAlarm(alarmId);
+        if (optionalRuleState.isPresent()) {
+            RuleState ruleState = optionalRuleState.get();
+            long version = ruleState.getVersion() == null ? 0L : ruleState.getVersion();
+            try {
+                return new StateEntry(JacksonUtil.deSerialize(ruleState.getStateValue(), AnomalyState.class), version);
+            } catch (Exception ex) {
+                LOGGER.error("error when parse anomaly state, alarmId: {}", alarmId, ex);
+                return new StateEntry(new AnomalyState(), version);
+            }
+        }
+        return new StateEntry(new AnomalyState(), 0L);
+    }
+
+    /**
+     * 内存中的状态和它对应的rule_state.version
+     */
+    private static class StateEntry {
+
+        private final AnomalyState state;
+
+        private volatile long version;
+
+        private volatile long checkedAt = System.currentTimeMillis();
+
+        StateEntry(AnomalyState state, long version) {
+            this.state = state;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import com.autohome.frostmourne.monitor.tool.ExecuteDeadline;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 执行js表达式
+ * <p>
+ * ScriptEngine不能多线程同时eval，表达式在固定数量的执行线程中计算，每个线程有自己的ScriptEngine和编译缓存，线程之间不加锁。
+ * 相同的表达式在一个线程中只编译一次，缓存有大小上限。监控上下文作为GLOBAL_SCOPE传入，不复制也不创建新的Global。
+ * 表达式执行超过时间预算时停止所在的线程并丢弃它的ScriptEngine，被停止的线程不再复用，由线程池创建新线程代替，
+ * 死循环等表达式不会占住触发线程
+ */
+@Component
+public class ExpressionEvaluator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpressionEvaluator.class);
+
+    private static final long COMPILED_CACHE_SIZE = 1000;
+
+    private static final long COMPILED_EXPIRE_HOURS = 2;
+
+    private static final int QUEUE_SIZE = 1000;
+
+    /**
+     * 等待排队、创建ScriptEngine和编译的最长时间，不计入表达式的时间预算
+     */
+    private static final long PREPARE_TIMEOUT_MS = 30000;
+
+    @Value("${rule.expression.threads:8}")
+    private int threads;
+
+    @Value("${rule.expression.timeout.ms:1000}")
+    private long timeoutMs;
+
+    private ThreadPoolExecutor executor;
+
+    private final ThreadLocal<EngineSlot> engineSlot = new ThreadLocal<>();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    @PostConstruct
+    private void start() {
+        int threadCount = Math.max(threads, 1);
+        executor = new ThreadPoolExecutor(threadCount, threadCount,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE),
+                new ThreadFactory() {
+                    private final AtomicInteger index = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ExpressionEvaluator-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy()) {
+            @Override
+            protected void afterExecute(Runnable runnable, Throwable throwable) {
+                EngineSlot slot = engineSlot.get();
+                if (slot != null && slot.aborted) {
+                    // FutureTask swallows the ThreadDeath of stop, end the stopped thread here and the pool creates a new one
+                    engineSlot.remove();
+                    throw new ThreadDeath();
+                }
+            }
+        };
+    }
+
+    @PreDestroy
+    private void stop() {
+        executor.shutdownNow();
+    }
+
+    public Object eval(String expression, Map<String, Object> context) {
+        EvalTask evalTask = new EvalTask(expression, context);
+        Future<Object> future;
+        try {
+            future = executor.submit(evalTask);
+        } catch (RejectedExecutionException ex) {
+            throw new RuntimeException("expression evaluator is busy, queue size: " + executor.getQueue().size(), ex);
+        }
+        try {
+            if (!evalTask.started.await(ExecuteDeadline.remainingMs(PREPARE_TIMEOUT_MS), TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("expression not started");
+            }
+            // startedAt is 0 when compile failed, the future is completing with the error
+            long budget = evalTask.startedAt == 0 ? PREPARE_TIMEOUT_MS
+                    : ExecuteDeadline.remainingMs(evalTask.startedAt + timeoutMs - System.currentTimeMillis());
+            return future.get(Math.max(budget, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            timeoutCount.incrementAndGet();
+            future.cancel(true);
+            evalTask.abort();
+            throw new RuntimeException("timeout when execute js expression, timeout: " + timeoutMs + "ms, expression: " + expression, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            evalTask.abort();
+            throw new RuntimeException("interrupted when execute js expression: " + expression, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("error when execute js expression: " + expression, ex.getCause());
+        }
+    }
+
+    /**
+     * 超过时间预算被停止的表达式数量
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    private EngineSlot currentSlot() {
+        EngineSlot slot = engineSlot.get();
+        if (slot == null || slot.aborted) {
+            slot = new EngineSlot();
+            engineSlot.set(slot);
+        }
+        return slot;
+    }
+
+    private class EvalTask implements Callable<Object> {
+
+        private final String expression;
+
+        private final Map<String, Object> context;
+
+        private Thread runner;
+
+        private EngineSlot slot;
+
+        private boolean finished = false;
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private volatile long startedAt;
+
+        EvalTask(String expression, Map<String, Object> context) {
+            this.expression = expression;
+            this.context = context;
+        }
+
+        @Override
+        public Object call() throws ScriptException {
+            EngineSlot currentSlot = currentSlot();
+            synchronized (this) {
+                this.runner = Thread.currentThread();
+                this.slot = currentSlot;
+            }
+            try {
+                CompiledScript compiledScript = currentSlot.compile(expression);
+                startedAt = System.currentTimeMillis();
+                started.countDown();
+                return currentSlot.eval(compiledScript, context);
+            } finally {
+                started.countDown();
+                synchronized (this) {
+                    finished = true;
+                }
+            }
+        }
+
+        /**
+         * 丢弃执行线程的ScriptEngine，表达式还在执行时停止线程。js代码不响应中断，只能stop
+         */
+        @SuppressWarnings("deprecation")
+        synchronized void abort() {
+            if (slot == null || finished) {
+                return;
+            }
+            slot.aborted = true;
+            LOGGER.error("stop expression thread {}, expression: {}", runner.getName(), expression);
+            try {
+                runner.stop();
+            } catch (UnsupportedOperationException ex) {
+                LOGGER.error("can not stop expression thread {}, it keeps running", runner.getName());
+            }
+        }
+    }
+
+    /**
+     * 线程独占的ScriptEngine和编译好的表达式
+     */
+    private static class EngineSlot {
+
+        private final ScriptEngine scriptEngine;
+
+        private final Bindings engineBindings;
+
+        private final Set<String> builtinNames;
+
+        private final Cache<String, CompiledScript> compiledCache = CacheBuilder.newBuilder()
+                .maximumSize(COMPILED_CACHE_SIZE)
+                .expireAfterAccess(COMPILED_EXPIRE_HOURS, TimeUnit.HOURS)
+                .build();
+
+        private volatile boolean aborted = false;
+
+        EngineSlot() {
+            this.scriptEngine = new ScriptEngineManager().getEngineByName("nashorn");
+            this.engineBindings = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE);
+            this.builtinNames = new HashSet<>(engineBindings.keySet());
+        }
+
+        CompiledScript compile(String expression) throws ScriptException {
+            CompiledScript compiledScript = compiledCache.getIfPresent(expression);
+            if (compiledScript == null) {
+                compiledScript = ((Compilable) scriptEngine).compile(expression);
+                compiledCache.put(expression, compiledScript);
+            }
+            return compiledScript;
+        }
+
+        Object eval(CompiledScript compiledScript, Map<String, Object> context) throws ScriptException {
+            ScriptContext scriptContext = scriptEngine.getContext();
+            // variables not defined in script are looked up in GLOBAL_SCOPE
+            scriptContext.setBindings(new SimpleBindings(context), ScriptContext.GLOBAL_SCOPE);
+            try {
+                return compiledScript.eval(scriptContext);
+            } finally {
+                scriptContext.setBindings(null, ScriptContext.GLOBAL_SCOPE);
+                clearAssigned();
+            }
+        }
+
+        /**
+         * 表达式中赋值的全局变量不能带到下一次执行
+         */
+        private void clearAssigned() {
+            if (engineBindings.size() == builtinNames.size()) {
+                return;
+            }
+            for (String name : new HashSet<>(engineBindings.keySet())) {
+                if (!builtinNames.contains(name)) {
+                    engineBindings.remove(name);
+                }
+            }
+        }
+    }
+}
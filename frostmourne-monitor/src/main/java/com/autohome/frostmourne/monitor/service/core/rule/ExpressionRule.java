@@ -1,10 +1,6 @@
 package com.autohome.frostmourne.monitor.service.core.rule;
 
 import java.util.Map;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-import javax.script.SimpleBindings;
 
 import com.autohome.frostmourne.monitor.contract.MetricContract;
 import com.autohome.frostmourne.monitor.contract.RuleContract;
@@ -18,24 +14,22 @@ public class ExpressionRule extends AbstractRule {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ExpressionRule.class);
 
-    private ScriptEngine scriptEngine;
+    private ExpressionEvaluator expressionEvaluator;
 
-    public ExpressionRule(ITemplateService templateService) {
+    public ExpressionRule(ITemplateService templateService, ExpressionEvaluator expressionEvaluator) {
         super(templateService);
-        scriptEngine = new ScriptEngineManager().getEngineByName("nashorn");
+        this.expressionEvaluator = expressionEvaluator;
     }
 
     @Override
     public boolean verify(AlarmProcessLogger alarmProcessLogger, RuleContract ruleContract, MetricContract metricContract, IMetric metric) {
         Map<String, Object> context = context(alarmProcessLogger, ruleContract, metricContract, metric);
 
-        SimpleBindings simpleBindings = new SimpleBindings();
-        simpleBindings.putAll(context);
-        Object result = null;
         String expression = ruleContract.getSettings().get("EXPRESSION");
+        Object result = null;
         try {
-            result = scriptEngine.eval(expression, simpleBindings);
-        } catch (ScriptException ex) {
+            result = expressionEvaluator.eval(expression, context);
+        } catch (RuntimeException ex) {
             LOGGER.error("error when execute js expression： " + expression, ex);
             throw new RuntimeException("error when execute js expression： " + expression, ex);
         }
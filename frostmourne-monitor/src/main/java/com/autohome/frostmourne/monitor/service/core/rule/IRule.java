@@ -11,5 +11,10 @@ public interface IRule {
 
     boolean verify(AlarmProcessLogger alarmProcessLogger, RuleContract ruleContract, MetricContract metricContract, IMetric metric);
 
-    String alertMessage(String alertTemplate, Map<String, Object> context);
+    String alertMessage(Long alarmId, String alertTemplate, Map<String, Object> context);
+
+    /**
+     * 渲染不属于监控模板的文本，如自定义链接
+     */
+    String format(String text, Map<String, Object> context);
 }
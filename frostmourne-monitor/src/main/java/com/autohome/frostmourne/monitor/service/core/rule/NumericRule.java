@@ -16,39 +16,29 @@ public class NumericRule extends AbstractRule {
 
     @Override
     public boolean verify(AlarmProcessLogger alarmProcessLogger, RuleContract ruleContract, MetricContract metricContract, IMetric metric) {
+        RulePlan rulePlan = RulePlan.of(ruleContract.getSettings());
+        double threshold = rulePlan.getThreshold();
+        RulePlan.NumericOperator operator = rulePlan.getOperator();
         Map<String, Object> context = context(alarmProcessLogger, ruleContract, metricContract, metric);
-        Double threshold = findThreshold(ruleContract);
-        Double number = findNumber(context);
-        String operator = findOperation(ruleContract);
-
-        if (operator.equalsIgnoreCase("gte")) {
-            return number >= threshold;
-        }
-        if (operator.equalsIgnoreCase("lte")) {
-            return number <= threshold;
-        }
-        if (operator.equalsIgnoreCase("equal")) {
-            return number.equals(threshold);
-        }
-
-        throw new RuntimeException("unknown operator: " + operator);
-    }
-
-    private Double findNumber(Map<String, Object> context) {
-        return Double.parseDouble(context.get("NUMBER").toString());
-    }
-
-    private Double findThreshold(RuleContract ruleContract) {
-        if (!ruleContract.getSettings().containsKey("THRESHOLD")) {
-            throw new RuntimeException("FrequencyRule中THRESHOLD属性不存在。");
+        double number = findNumber(context);
+
+        switch (operator) {
+            case GTE:
+                return number >= threshold;
+            case LTE:
+                return number <= threshold;
+            case EQUAL:
+                return number == threshold;
+            default:
+                throw new RuntimeException("unknown operator: " + operator);
         }
-        return Double.parseDouble(ruleContract.getSettings().get("THRESHOLD"));
     }
 
-    private String findOperation(RuleContract ruleContract) {
-        if (!ruleContract.getSettings().containsKey("OPERATOR")) {
-            throw new RuntimeException("FrequencyRule中OPERATOR属性不存在。");
+    private double findNumber(Map<String, Object> context) {
+        Object number = context.get("NUMBER");
+        if (number instanceof Number) {
+            return ((Number) number).doubleValue();
         }
-        return ruleContract.getSettings().get("OPERATOR");
+        return Double.parseDouble(number.toString());
     }
 }
@@ -9,7 +9,6 @@ import com.autohome.frostmourne.monitor.service.core.domain.ReferenceBag;
 import com.autohome.frostmourne.monitor.service.core.execute.AlarmProcessLogger;
 import com.autohome.frostmourne.monitor.service.core.metric.IMetric;
 import com.autohome.frostmourne.monitor.service.core.template.ITemplateService;
-import com.google.common.base.Strings;
 
 public class PercentageRule extends AbstractRule {
 
@@ -20,40 +19,16 @@ public class PercentageRule extends AbstractRule {
 
     @Override
     public boolean verify(AlarmProcessLogger alarmProcessLogger, RuleContract ruleContract, MetricContract metricContract, IMetric metric) {
+        RulePlan rulePlan = RulePlan.of(ruleContract.getSettings());
         Map<String, Object> context = context(alarmProcessLogger, ruleContract, metricContract, metric);
-        Map<String, String> ruleSettings = ruleContract.getSettings();
         List<ReferenceBag> referenceDataList = findReference(context);
         boolean verifyResult = true;
         for (ReferenceBag referenceBag : referenceDataList) {
-            verifyResult = verifyResult && verify(context, referenceBag, ruleSettings);
+            verifyResult = verifyResult && verify(context, referenceBag, rulePlan);
         }
         return verifyResult;
     }
 
-    protected Double findPercentageThreshold(Map<String, String> ruleSettings) {
-        if (!ruleSettings.containsKey("PERCENTAGE_THRESHOLD")) {
-            throw new RuntimeException("PercentageRule中percentage_threshold属性不存在。");
-        }
-
-        return Double.parseDouble(ruleSettings.get("PERCENTAGE_THRESHOLD"));
-    }
-
-    protected String findOperationType(Map<String, String> ruleSettings) {
-        if (!ruleSettings.containsKey("COMPARE_TYPE")) {
-            throw new RuntimeException("PercentageRule中COMPARE_TYPE属性不存在。");
-        }
-
-        return ruleSettings.get("COMPARE_TYPE");
-    }
-
-    protected Double findDiffThreshold(Map<String, String> ruleSettings) {
-        if (!ruleSettings.containsKey("DIFF_VALUE_THRESHOLD")) {
-            return 0D;
-        }
-
-        return Double.parseDouble(ruleSettings.get("DIFF_VALUE_THRESHOLD"));
-    }
-
     protected List<ReferenceBag> findReference(Map<String, Object> context) {
         return (List<ReferenceBag>) context.get("REFERENCE_LIST");
     }
@@ -66,50 +41,44 @@ public class PercentageRule extends AbstractRule {
         return findCurrent(context) - referenceBag.getValue();
     }
 
-    protected String findDiffCompareOp(Map<String, String> ruleSettings) {
-        if (!ruleSettings.containsKey("DIFF_COMPARE_TYPE")) {
-            return null;
-        }
-        return ruleSettings.get("DIFF_COMPARE_TYPE");
-    }
-
-    private boolean verify(Map<String, Object> context, ReferenceBag referenceBag, Map<String, String> ruleSettings) {
-        return verifyPercentage(referenceBag, ruleSettings) && verifyDiff(context, referenceBag, ruleSettings);
+    private boolean verify(Map<String, Object> context, ReferenceBag referenceBag, RulePlan rulePlan) {
+        return verifyPercentage(referenceBag, rulePlan) && verifyDiff(context, referenceBag, rulePlan);
     }
 
-    boolean verifyPercentage(ReferenceBag referenceBag, Map<String, String> ruleSettings) {
-        Double percentage = referenceBag.getPercentage();
-        Double percentageThreshold = findPercentageThreshold(ruleSettings);
-        String operationType = findOperationType(ruleSettings);
-        if (operationType.equalsIgnoreCase("INCREASE")) {
-            return percentage >= percentageThreshold;
-        } else if (operationType.equalsIgnoreCase("DECREASE")) {
-            return percentage <= -percentageThreshold;
-        } else if (operationType.equalsIgnoreCase("BOTH")) {
-            return Math.abs(percentage) >= percentageThreshold;
-        } else {
-            throw new IllegalArgumentException("unknown operation_type: " + operationType);
+    boolean verifyPercentage(ReferenceBag referenceBag, RulePlan rulePlan) {
+        double percentage = referenceBag.getPercentage();
+        double percentageThreshold = rulePlan.getPercentageThreshold();
+        switch (rulePlan.getCompareType()) {
+            case INCREASE:
+                return percentage >= percentageThreshold;
+            case DECREASE:
+                return percentage <= -percentageThreshold;
+            case BOTH:
+                return Math.abs(percentage) >= percentageThreshold;
+            default:
+                throw new IllegalArgumentException("unknown operation_type: " + rulePlan.getCompareType());
         }
     }
 
-
-    boolean verifyDiff(Map<String, Object> context, ReferenceBag referenceBag, Map<String, String> ruleSettings) {
-        String diffCompareOp = findDiffCompareOp(ruleSettings);
-        if (Strings.isNullOrEmpty(diffCompareOp)) {
+    boolean verifyDiff(Map<String, Object> context, ReferenceBag referenceBag, RulePlan rulePlan) {
+        RulePlan.DiffOperator diffOperator = rulePlan.getDiffOperator();
+        if (diffOperator == null) {
             return true;
         }
 
-        Double diff = findDiff(context, referenceBag);
-        Double diffThreshold = findDiffThreshold(ruleSettings);
-        if (diffCompareOp.equalsIgnoreCase("gte")) {
-            return diff >= diffThreshold;
-        } else if (diffCompareOp.equalsIgnoreCase("lte")) {
-            return diff <= diffThreshold;
-        } else if (diffCompareOp.equalsIgnoreCase("abs_gte")) {
-            return Math.abs(diff) >= diffThreshold;
-        } else if (diffCompareOp.equalsIgnoreCase("abs_lte")) {
-            return Math.abs(diff) <= diffThreshold;
+        double diff = findDiff(context, referenceBag);
+        double diffThreshold = rulePlan.getDiffThreshold();
+        switch (diffOperator) {
+            case GTE:
+                return diff >= diffThreshold;
+            case LTE:
+                return diff <= diffThreshold;
+            case ABS_GTE:
+                return Math.abs(diff) >= diffThreshold;
+            case ABS_LTE:
+                return Math.abs(diff) <= diffThreshold;
+            default:
+                throw new IllegalArgumentException("unknown diff operation:" + diffOperator);
         }
-        throw new IllegalArgumentException("unknown diff operation:" + diffCompareOp);
     }
 }
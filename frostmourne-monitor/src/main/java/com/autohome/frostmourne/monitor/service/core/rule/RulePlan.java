@@ -0,0 +1,352 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.joda.time.DateTime;
+
+/**
+ * 编译后的规则设置
+ * <p>
+ * 规则设置保存为字符串，每次执行都解析阈值、比较符和对比类型。编译后的设置是不可变对象，
+ * 阈值为double，比较符和对比类型为枚举，执行时不再解析字符串。按设置Map对象缓存，
+ * 配置缓存中的监控在配置版本变化前只编译一次。保存监控时通过validate检查设置，非法配置不能保存
+ */
+public final class RulePlan {
+
+    public enum NumericOperator {
+        GTE, LTE, EQUAL
+    }
+
+    public enum CompareType {
+        INCREASE, DECREASE, BOTH
+    }
+
+    public enum DiffOperator {
+        GTE, LTE, ABS_GTE, ABS_LTE
+    }
+
+    public enum PeriodUnit {
+        HOUR("小时"), DAY("天");
+
+        private final String description;
+
+        PeriodUnit(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    public enum ReferenceType {
+        DAY("昨天"), WEEK("上周"), MONTH("上月");
+
+        private final String description;
+
+        ReferenceType(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * 异常检测的周期，每个周期位置有单独的基线
+     */
+    public enum SeasonType {
+        NONE(1), HOUR(24), WEEK_HOUR(168);
+
+        private final int slotCount;
+
+        SeasonType(int slotCount) {
+            this.slotCount = slotCount;
+        }
+
+        public int getSlotCount() {
+            return slotCount;
+        }
+
+        public int slot(DateTime time) {
+            switch (this) {
+                case HOUR:
+                    return time.getHourOfDay();
+                case WEEK_HOUR:
+                    return (time.getDayOfWeek() - 1) * 24 + time.getHourOfDay();
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    private static final Cache<Map<String, String>, RulePlan> PLAN_CACHE = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+
+    private static final RulePlan EMPTY = new RulePlan(Collections.emptyMap());
+
+    private final Map<String, String> errors = new HashMap<>();
+
+    private final double threshold;
+
+    private final NumericOperator operator;
+
+    private final double percentageThreshold;
+
+    private final CompareType compareType;
+
+    private final DiffOperator diffOperator;
+
+    private final double diffThreshold;
+
+    private final PeriodUnit periodUnit;
+
+    private final List<ReferenceType> referenceTypes;
+
+    private final double anomalySigma;
+
+    private final double anomalyAlpha;
+
+    private final SeasonType seasonType;
+
+    private final double anomalyWarmup;
+
+    private final double anomalyMinDeviation;
+
+    private RulePlan(Map<String, String> settings) {
+        this.threshold = parseDouble(settings, "THRESHOLD", Double.NaN);
+        this.operator = parseEnum(settings, "OPERATOR", NumericOperator.class);
+        this.percentageThreshold = parseDouble(settings, "PERCENTAGE_THRESHOLD", Double.NaN);
+        this.compareType = parseEnum(settings, "COMPARE_TYPE", CompareType.class);
+        this.diffOperator = parseEnum(settings, "DIFF_COMPARE_TYPE", DiffOperator.class);
+        this.diffThreshold = parseDouble(settings, "DIFF_VALUE_THRESHOLD", 0D);
+        this.periodUnit = parseEnum(settings, "PERIOD_UNIT", PeriodUnit.class);
+        this.referenceTypes = parseReferenceTypes(settings);
+        this.anomalySigma = parseDouble(settings, "ANOMALY_SIGMA", 3D);
+        this.anomalyAlpha = parseDouble(settings, "ANOMALY_ALPHA", 0.1D);
+        this.seasonType = parseEnum(settings, "ANOMALY_SEASON", SeasonType.class);
+        this.anomalyWarmup = parseDouble(settings, "ANOMALY_WARMUP", 10D);
+        this.anomalyMinDeviation = parseDouble(settings, "ANOMALY_MIN_DEVIATION", 0D);
+        if (anomalySigma <= 0) {
+            errors.put("ANOMALY_SIGMA", "ANOMALY_SIGMA必须大于0: " + anomalySigma);
+        }
+        if (anomalyAlpha <= 0 || anomalyAlpha > 1) {
+            errors.put("ANOMALY_ALPHA", "ANOMALY_ALPHA必须在(0, 1]之间: " + anomalyAlpha);
+        }
+    }
+
+    /**
+     * 获取规则设置编译后的结果，同一个设置Map对象只编译一次
+     */
+    public static RulePlan of(Map<String, String> settings) {
+        if (settings == null) {
+            return EMPTY;
+        }
+        RulePlan rulePlan = PLAN_CACHE.getIfPresent(settings);
+        if (rulePlan == null) {
+            rulePlan = new RulePlan(settings);
+            PLAN_CACHE.put(settings, rulePlan);
+        }
+        return rulePlan;
+    }
+
+    /**
+     * 检查规则类型和指标类型需要的设置，不合法时抛出IllegalArgumentException
+     */
+    public static void validate(String ruleType, String metricType, Map<String, String> settings) {
+        RulePlan rulePlan = new RulePlan(settings == null ? Collections.emptyMap() : settings);
+        if ("numeric".equalsIgnoreCase(ruleType)) {
+            rulePlan.getThreshold();
+            rulePlan.getOperator();
+        } else if ("percentage".equalsIgnoreCase(ruleType)) {
+            rulePlan.getPercentageThreshold();
+            rulePlan.getCompareType();
+            rulePlan.getDiffOperator();
+            rulePlan.getDiffThreshold();
+        } else if ("anomaly".equalsIgnoreCase(ruleType)) {
+            rulePlan.getCompareType(CompareType.BOTH);
+            rulePlan.getAnomalySigma();
+            rulePlan.getAnomalyAlpha();
+            rulePlan.getSeasonType();
+            rulePlan.getAnomalyWarmup();
+            rulePlan.getAnomalyMinDeviation();
+        } else if ("expression".equalsIgnoreCase(ruleType)) {
+            if (settings == null || Strings.isNullOrEmpty(settings.get("EXPRESSION"))) {
+                throw new IllegalArgumentException("EXPRESSION属性不存在。");
+            }
+        }
+        if ("same_time".equalsIgnoreCase(metricType)) {
+            rulePlan.getPeriodUnit();
+            rulePlan.getReferenceTypes();
+        }
+    }
+
+    public double getThreshold() {
+        check("THRESHOLD");
+        return threshold;
+    }
+
+    public NumericOperator getOperator() {
+        check("OPERATOR");
+        return operator;
+    }
+
+    public double getPercentageThreshold() {
+        check("PERCENTAGE_THRESHOLD");
+        return percentageThreshold;
+    }
+
+    public CompareType getCompareType() {
+        check("COMPARE_TYPE");
+        return compareType;
+    }
+
+    /**
+     * 没有设置COMPARE_TYPE时返回defaultValue
+     */
+    public CompareType getCompareType(CompareType defaultValue) {
+        checkValid("COMPARE_TYPE");
+        return compareType == null ? defaultValue : compareType;
+    }
+
+    /**
+     * 没有设置DIFF_COMPARE_TYPE时返回null，不比较差值
+     */
+    public DiffOperator getDiffOperator() {
+        checkValid("DIFF_COMPARE_TYPE");
+        return diffOperator;
+    }
+
+    public double getDiffThreshold() {
+        checkValid("DIFF_VALUE_THRESHOLD");
+        return diffThreshold;
+    }
+
+    public PeriodUnit getPeriodUnit() {
+        check("PERIOD_UNIT");
+        return periodUnit;
+    }
+
+    public List<ReferenceType> getReferenceTypes() {
+        check("REFERENCE_TYPE_LIST");
+        return referenceTypes;
+    }
+
+    public double getAnomalySigma() {
+        checkValid("ANOMALY_SIGMA");
+        return anomalySigma;
+    }
+
+    public double getAnomalyAlpha() {
+        checkValid("ANOMALY_ALPHA");
+        return anomalyAlpha;
+    }
+
+    /**
+     * 没有设置ANOMALY_SEASON时不区分周期
+     */
+    public SeasonType getSeasonType() {
+        checkValid("ANOMALY_SEASON");
+        return seasonType == null ? SeasonType.NONE : seasonType;
+    }
+
+    public long getAnomalyWarmup() {
+        checkValid("ANOMALY_WARMUP");
+        return (long) anomalyWarmup;
+    }
+
+    public double getAnomalyMinDeviation() {
+        checkValid("ANOMALY_MIN_DEVIATION");
+        return anomalyMinDeviation;
+    }
+
+    private void check(String key) {
+        checkValid(key);
+        boolean missing;
+        switch (key) {
+            case "THRESHOLD":
+                missing = Double.isNaN(threshold);
+                break;
+            case "PERCENTAGE_THRESHOLD":
+                missing = Double.isNaN(percentageThreshold);
+                break;
+            case "OPERATOR":
+                missing = operator == null;
+                break;
+            case "COMPARE_TYPE":
+                missing = compareType == null;
+                break;
+            case "PERIOD_UNIT":
+                missing = periodUnit == null;
+                break;
+            case "REFERENCE_TYPE_LIST":
+                missing = referenceTypes == null;
+                break;
+            default:
+                missing = false;
+        }
+        if (missing) {
+            throw new IllegalArgumentException(key + "属性不存在。");
+        }
+    }
+
+    private void checkValid(String key) {
+        String error = errors.get(key);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    private double parseDouble(Map<String, String> settings, String key, double defaultValue) {
+        String value = settings.get(key);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException ex) {
+            errors.put(key, key + "不是数字: " + value);
+            return defaultValue;
+        }
+    }
+
+    private <T extends Enum<T>> T parseEnum(Map<String, String> settings, String key, Class<T> enumType) {
+        String value = settings.get(key);
+        if (Strings.isNullOrEmpty(value)) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(enumType, value.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            errors.put(key, "unknown " + key + ": " + value);
+            return null;
+        }
+    }
+
+    private List<ReferenceType> parseReferenceTypes(Map<String, String> settings) {
+        String value = settings.get("REFERENCE_TYPE_LIST");
+        if (Strings.isNullOrEmpty(value)) {
+            return null;
+        }
+        List<ReferenceType> types = new ArrayList<>();
+        for (String type : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+            try {
+                types.add(ReferenceType.valueOf(type.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                errors.put("REFERENCE_TYPE_LIST", "unknown reference_type: " + type);
+                return null;
+            }
+        }
+        return Collections.unmodifiableList(types);
+    }
+}
@@ -0,0 +1,6 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+public interface ILocalTriggerService {
+
+    void trigger(Long alarmId);
+}
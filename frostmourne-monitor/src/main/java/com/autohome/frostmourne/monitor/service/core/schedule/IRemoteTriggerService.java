@@ -1,6 +1,13 @@
 package com.autohome.frostmourne.monitor.service.core.schedule;
 
+import java.util.List;
+
 public interface IRemoteTriggerService {
 
     void trigger(Long alarmId);
+
+    /**
+     * 一次请求触发多个监控，返回执行节点队列已满未接收的监控，请求失败时返回全部监控
+     */
+    List<Long> triggerBatch(List<Long> alarmIds);
 }
@@ -2,19 +2,23 @@ package com.autohome.frostmourne.monitor.service.core.schedule;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.autohome.frostmourne.monitor.config.ScheduleConfig;
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.Alarm;
-import com.autohome.frostmourne.monitor.service.core.cron.CronExpression;
+import com.autohome.frostmourne.monitor.service.core.cron.CronScheduleCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +33,12 @@ public class JobScheduleHelper {
 
     public static final long PRE_READ_MS = 5000;    // pre read
 
+    public static final long RING_TICK_MS = 100;    // time-ring tick
+
+    public static final int RING_WHEEL_SIZE = 100;
+
+    public static final int SCHEDULE_UPDATE_BATCH_SIZE = 500;
+
     private volatile boolean scheduleThreadToStop = false;
 
     private Thread scheduleThread;
@@ -37,9 +47,32 @@ public class JobScheduleHelper {
 
     private volatile boolean ringThreadToStop = false;
 
-    private volatile static Map<Integer, List<Long>> ringData = new ConcurrentHashMap<>();
+    private final TimingWheel timingWheel = new TimingWheel(RING_TICK_MS, RING_WHEEL_SIZE, System.currentTimeMillis());
+
+    /**
+     * 单次调度预读的时间预算，超出后剩余的到期监控顺延到下一次调度
+     */
+    public static final long PRE_READ_BUDGET_MS = 2000;
+
+    /**
+     * 累计顺延的到期监控数量
+     */
+    private final AtomicLong deferredCount = new AtomicLong();
 
-    private long preReadCount = 1000;
+    /**
+     * 已提交但还没有放入时间轮或线程池的触发计划中最早的触发时间，没有时为Long.MAX_VALUE
+     */
+    private volatile long dispatchingFrom = Long.MAX_VALUE;
+
+    /**
+     * 时间轮推进前的时间，到期任务交给JobTriggerHelper之前fired_until不能超过它，没有推进时为Long.MAX_VALUE
+     */
+    private volatile long ringFiringFrom = Long.MAX_VALUE;
+
+    /**
+     * 每个分区放入时间轮的最晚触发时间，释放分区时本节点继续触发到该时间
+     */
+    private final ConcurrentMap<Integer, Long> plannedUntil = new ConcurrentHashMap<>();
 
     public void start() {
 
@@ -55,108 +88,131 @@ public class JobScheduleHelper {
                 }
                 LOGGER.info(">>>>>>>>> init scheduler success.");
 
+                ScheduleIndex scheduleIndex = ScheduleConfig.getInstance().getScheduleIndexEnabled() ? ScheduleIndex.getInstance() : null;
+
                 while (!scheduleThreadToStop) {
                     long start = System.currentTimeMillis();
 
                     Connection conn = null;
                     Boolean connAutoCommit = null;
-                    PreparedStatement preparedStatement = null;
                     boolean preReadSuccess = true;
+                    boolean committed = false;
+                    TriggerPlan triggerPlan = null;
+                    boolean indexPolled = false;
 
                     try {
-                        conn = ScheduleConfig.getInstance().getDruidDataSource().getConnection();
-                        connAutoCommit = conn.getAutoCommit();
-                        conn.setAutoCommit(false);
-
-                        preparedStatement = conn.prepareStatement("select * from job_lock where lock_name = 'schedule_lock' for update");
-                        preparedStatement.execute();
-
-                        // tx start
-
-                        // 1、pre read
-                        long nowTime = System.currentTimeMillis();
-                        //List<Alarm> scheduleList = XxlJobAdminConfig.getAdminConfig().getXxlJobInfoDao().scheduleJobQuery(nowTime + PRE_READ_MS, preReadCount);
-                        List<Alarm> scheduleList = ScheduleConfig.getInstance().getAlarmRepository().querySchedule(nowTime + PRE_READ_MS, preReadCount);
-                        if (scheduleList != null && scheduleList.size() > 0) {
-                            // 2、push time-ring
-                            for (Alarm alarm : scheduleList) {
-
-                                // time-ring jump
-                                if (nowTime > alarm.getTriggerNextTime() + PRE_READ_MS) {
-                                    // 2.1、trigger-expire > 5s：pass && make next-trigger-time
-                                    LOGGER.warn(">>>>>>>>>>> schedule misfire, alarmId = {}", alarm.getId());
-
-                                    // 1、misfire match
-                                    // FIRE_ONCE_NOW 》 trigger
-                                    JobTriggerHelper.trigger(alarm.getId());
-                                    LOGGER.debug(">>>>>>>>>>> schedule push trigger : alarmId = {}", alarm.getId());
-
-                                    // 2、fresh next
-                                    refreshNextValidTime(alarm, new Date());
-
-                                } else if (nowTime > alarm.getTriggerNextTime()) {
-                                    // 2.2、trigger-expire < 5s：direct-trigger && make next-trigger-time
-
-                                    // 1、trigger
-                                    JobTriggerHelper.trigger(alarm.getId());
-                                    LOGGER.debug(">>>>>>>>>>> schedule push trigger : jobId = {}", alarm.getId());
-
-                                    // 2、fresh next
-                                    refreshNextValidTime(alarm, new Date());
-
-                                    // next-trigger-time in 5s, pre-read again
-                                    if (nowTime + PRE_READ_MS > alarm.getTriggerNextTime()) {
-
-                                        // 1、make ring second
-                                        int ringSecond = (int) ((alarm.getTriggerNextTime() / 1000) % 60);
-
-                                        // 2、push time ring
-                                        pushTimeRing(ringSecond, alarm.getId());
-
-                                        // 3、fresh next
-                                        refreshNextValidTime(alarm, new Date(alarm.getTriggerNextTime()));
-
-                                    }
+                        SchedulePartitionHelper partitionHelper = SchedulePartitionHelper.getInstance();
+                        int partitionCount = partitionHelper.getPartitionCount();
+                        int pageSize = ScheduleConfig.getInstance().getPreReadPageSize();
+                        Map<Integer, Long> leases = partitionHelper.getOwnedLeases();
+                        List<Integer> partitions = new ArrayList<>(leases.keySet());
+
+                        // 0、in-memory index, no database access when nothing is due
+                        List<Alarm> firstPage = null;
+                        if (scheduleIndex != null) {
+                            scheduleIndex.refresh(partitions, partitionCount, start);
+                            indexPolled = true;
+                            firstPage = scheduleIndex.pollDue(partitions, System.currentTimeMillis() + PRE_READ_MS, pageSize);
+                        }
 
+                        if (partitions.isEmpty() || (firstPage != null && firstPage.isEmpty())) {
+                            // standby or nothing due
+                            preReadSuccess = false;
+                        } else {
+                            conn = ScheduleConfig.getInstance().getDruidDataSource().getConnection();
+                            connAutoCommit = conn.getAutoCommit();
+                            conn.setAutoCommit(false);
+
+                            // tx start
+
+                            // 1、pre read page by page in trigger_next_time order, the earliest never starve
+                            long nowTime = System.currentTimeMillis();
+                            long maxNextTime = nowTime + PRE_READ_MS;
+                            triggerPlan = new TriggerPlan();
+                            Long afterNextTime = null;
+                            Long afterId = null;
+                            long deferred = 0;
+                            int pageCount = 0;
+                            boolean leaseLost = false;
+                            while (true) {
+                                List<Alarm> page;
+                                if (scheduleIndex != null) {
+                                    page = pageCount == 0 ? firstPage : scheduleIndex.pollDue(partitions, maxNextTime, pageSize);
                                 } else {
-                                    // 2.3、trigger-pre-read：time-ring trigger && make next-trigger-time
-
-                                    // 1、make ring second
-                                    int ringSecond = (int) ((alarm.getTriggerNextTime() / 1000) % 60);
-
-                                    // 2、push time ring
-                                    pushTimeRing(ringSecond, alarm.getId());
-
-                                    // 3、fresh next
-                                    refreshNextValidTime(alarm, new Date(alarm.getTriggerNextTime()));
-
+                                    page = ScheduleConfig.getInstance().getAlarmRepository()
+                                            .querySchedule(maxNextTime, (long) pageSize, partitionCount, partitions, afterNextTime, afterId);
+                                }
+                                if (page.isEmpty()) {
+                                    break;
+                                }
+                                pageCount++;
+                                afterNextTime = page.get(page.size() - 1).getTriggerNextTime();
+                                afterId = page.get(page.size() - 1).getId();
+
+                                // 2、plan trigger and time-ring, dispatched after commit
+                                planTrigger(triggerPlan, page, nowTime);
+
+                                // 3、update trigger info, fenced by partition lease
+                                int updated = batchScheduleUpdate(conn, page, partitionCount, partitionHelper.getNodeId(), leases);
+                                if (updated < page.size()) {
+                                    // an alarm deleted by another node also updates nothing, tell it from a lost lease
+                                    Set<Long> missing = findMissing(conn, page);
+                                    if (scheduleIndex != null) {
+                                        for (Long alarmId : missing) {
+                                            scheduleIndex.markChanged(alarmId);
+                                        }
+                                    }
+                                    if (updated < page.size() - missing.size()) {
+                                        leaseLost = true;
+                                        break;
+                                    }
+                                    LOGGER.info(">>>>>>>>>>> schedule skip alarms deleted since pre-read: {}", missing);
+                                    triggerPlan.remove(missing);
                                 }
 
+                                if (page.size() < pageSize) {
+                                    break;
+                                }
+                                if (System.currentTimeMillis() - start > PRE_READ_BUDGET_MS) {
+                                    // the rest keep their trigger_next_time and come first in the next tick
+                                    deferred = scheduleIndex != null ? scheduleIndex.countDue(partitions, maxNextTime)
+                                            : ScheduleConfig.getInstance().getAlarmRepository().countSchedule(maxNextTime, partitionCount, partitions, afterNextTime, afterId);
+                                    break;
+                                }
                             }
 
-                            // 3、update trigger info
-                            for (Alarm jobInfo : scheduleList) {
-                                ScheduleConfig.getInstance().getAlarmRepository().scheduleUpdate(jobInfo.getId(), jobInfo.getTriggerLastTime(), jobInfo.getTriggerNextTime());
-                            }
+                            if (leaseLost) {
+                                // lease lost or taken over since pre-read, roll back and leave these alarms to the new holder
+                                LOGGER.warn(">>>>>>>>>>> schedule partition lease lost, rollback this pre-read. partitions: {}", partitions);
+                                triggerPlan = null;
+                                preReadSuccess = false;
+                            } else {
+                                if (deferred > 0) {
+                                    deferredCount.addAndGet(deferred);
+                                    LOGGER.warn(">>>>>>>>>>> schedule pre-read deferred {} alarms to next tick, pages: {}, pageSize: {}", deferred, pageCount, pageSize);
+                                }
+                                preReadSuccess = triggerPlan.size() > 0;
+                                dispatchingFrom = triggerPlan.getEarliest();
 
-                        } else {
-                            preReadSuccess = false;
+                                // tx stop
+                                conn.commit();
+                                committed = true;
+                            }
                         }
-
-                        // tx stop
-
                     } catch (Exception e) {
                         if (!scheduleThreadToStop) {
                             LOGGER.error(">>>>>> JobScheduleHelper#scheduleThread", e);
                         }
                     } finally {
-                        // commit
+                        // rollback when not committed, trigger_next_time stays unchanged and will be pre-read again
                         if (conn != null) {
-                            try {
-                                conn.commit();
-                            } catch (SQLException e) {
-                                if (!scheduleThreadToStop) {
-                                    LOGGER.error(e.getMessage(), e);
+                            if (!committed) {
+                                try {
+                                    conn.rollback();
+                                } catch (SQLException e) {
+                                    if (!scheduleThreadToStop) {
+                                        LOGGER.error(e.getMessage(), e);
+                                    }
                                 }
                             }
                             try {
@@ -174,18 +230,21 @@ public class JobScheduleHelper {
                                 }
                             }
                         }
+                    }
 
-                        // close PreparedStatement
-                        if (null != preparedStatement) {
-                            try {
-                                preparedStatement.close();
-                            } catch (SQLException e) {
-                                if (!scheduleThreadToStop) {
-                                    LOGGER.error(e.getMessage(), e);
-                                }
-                            }
+                    if (indexPolled) {
+                        if (committed) {
+                            scheduleIndex.commit();
+                        } else {
+                            scheduleIndex.rollback();
                         }
                     }
+
+                    // 5、trigger out of the lock transaction
+                    if (committed && triggerPlan != null) {
+                        triggerPlan.dispatch();
+                    }
+                    dispatchingFrom = Long.MAX_VALUE;
                     long cost = System.currentTimeMillis() - start;
 
                     // Wait seconds, align second
@@ -215,9 +274,9 @@ public class JobScheduleHelper {
 
                 while (!ringThreadToStop) {
 
-                    // align second
+                    // align tick
                     try {
-                        TimeUnit.MILLISECONDS.sleep(1000 - System.currentTimeMillis() % 1000);
+                        TimeUnit.MILLISECONDS.sleep(RING_TICK_MS - System.currentTimeMillis() % RING_TICK_MS);
                     } catch (InterruptedException e) {
                         if (!ringThreadToStop) {
                             LOGGER.error(e.getMessage(), e);
@@ -225,26 +284,16 @@ public class JobScheduleHelper {
                     }
 
                     try {
-                        // second data
-                        List<Long> ringItemData = new ArrayList<>();
-                        int nowSecond = Calendar.getInstance().get(Calendar.SECOND);   // 避免处理耗时太长，跨过刻度，向前校验一个刻度；
-                        for (int i = 0; i < 2; i++) {
-                            List<Long> tmpData = ringData.remove( (nowSecond+60-i)%60 );
-                            if (tmpData != null) {
-                                ringItemData.addAll(tmpData);
-                            }
+                        // 处理耗时跨过多个刻度时, 时间轮会依次推进, 不会漏掉中间的格子
+                        ringFiringFrom = timingWheel.getCurrentTime();
+                        int count;
+                        try {
+                            count = timingWheel.advanceWithExpire(System.currentTimeMillis(), JobScheduleHelper::ringTrigger);
+                        } finally {
+                            ringFiringFrom = Long.MAX_VALUE;
                         }
-
-                        // ring trigger
-                        LOGGER.debug(">>>>>>>>>>> time-ring beat : " + nowSecond + " = " + Arrays.asList(ringItemData) );
-                        if (ringItemData.size() > 0) {
-                            // do trigger
-                            for (long jobId: ringItemData) {
-                                // do trigger
-                                JobTriggerHelper.trigger(jobId);
-                            }
-                            // clear
-                            ringItemData.clear();
+                        if (count > 0) {
+                            LOGGER.debug(">>>>>>>>>>> time-ring beat : {} triggered", count);
                         }
                     } catch (Exception e) {
                         if (!ringThreadToStop) {
@@ -261,62 +310,65 @@ public class JobScheduleHelper {
     }
 
 
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * 本节点已经触发到的时间：不晚于时间轮推进到的时间、待执行的触发计划，以及线程池队列、溢出队列和批量请求中
+     * 还没有开始执行的最早触发。续约时写入schedule_partition.fired_until，宕机后接管者恢复该时间之后的任务
+     */
+    public long getFiredWatermark() {
+        long watermark = Math.min(Math.min(timingWheel.getCurrentTime(), ringFiringFrom), dispatchingFrom - 1);
+        return Math.min(watermark, JobTriggerHelper.getEarliestPendingTime() - 1);
+    }
+
+    /**
+     * 释放分区时写入的fired_until：本节点仍在运行，时间轮中该分区的任务由本节点继续触发
+     */
+    public long getFiredUntil(int partition) {
+        return Math.max(getFiredWatermark(), plannedUntil.getOrDefault(partition, 0L));
+    }
+
+    /**
+     * 接管分区时恢复原持有者已经预读、但在firedUntil之前没有触发的任务
+     *
+     * @param alarm      trigger_last_time为原持有者最后一次预读的触发时间
+     * @param firedUntil 原持有者已经触发到的时间
+     * @return 是否恢复了触发
+     */
+    public boolean recover(Alarm alarm, long firedUntil) throws Exception {
+        long triggerTime = spreadTriggerTime(alarm, alarm.getTriggerLastTime());
+        if (triggerTime <= firedUntil) {
+            return false;
+        }
+        pushTimeRing(triggerTime, alarm.getId());
+        return true;
+    }
+
     public void toStop(){
 
-        // 1、stop schedule
+        // 1、stop schedule, only the sleep between ticks is interrupted, a running tick rolls back
         scheduleThreadToStop = true;
+        scheduleThread.interrupt();
         try {
-            TimeUnit.SECONDS.sleep(1);  // wait
+            scheduleThread.join();
         } catch (InterruptedException e) {
             LOGGER.error(e.getMessage(), e);
         }
-        if (scheduleThread.getState() != Thread.State.TERMINATED){
-            // interrupt and wait
-            scheduleThread.interrupt();
-            try {
-                scheduleThread.join();
-            } catch (InterruptedException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
-        }
 
-        // if has ring data
-        boolean hasRingData = false;
-        if (!ringData.isEmpty()) {
-            for (int second : ringData.keySet()) {
-                List<Long> tmpData = ringData.get(second);
-                if (tmpData!=null && tmpData.size()>0) {
-                    hasRingData = true;
-                    break;
-                }
-            }
-        }
-        if (hasRingData) {
-            try {
-                TimeUnit.SECONDS.sleep(8);
-            } catch (InterruptedException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
-        }
-
-        // stop ring (wait job-in-memory stop)
+        // 2、stop ring
         ringThreadToStop = true;
+        ringThread.interrupt();
         try {
-            TimeUnit.SECONDS.sleep(1);
+            ringThread.join();
         } catch (InterruptedException e) {
             LOGGER.error(e.getMessage(), e);
         }
-        if (ringThread.getState() != Thread.State.TERMINATED){
-            // interrupt and wait
-            ringThread.interrupt();
-            try {
-                ringThread.join();
-            } catch (InterruptedException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
-        }
 
-        LOGGER.info(">>>>>>>>>>> JobScheduleHelper stop");
+        // 3、hand off, entries after the watermark are recovered by the next holder from trigger_last_time
+        int handOff = timingWheel.drainAll(alarmId -> { });
+        LOGGER.info(">>>>>>>>>>> JobScheduleHelper stop, hand off {} time-ring entries after {}", handOff, getFiredWatermark());
     }
 
     private void refreshNextValidTime(Alarm jobInfo, Date fromTime) throws Exception {
@@ -332,20 +384,264 @@ public class JobScheduleHelper {
         }
     }
 
-    private void pushTimeRing(int ringSecond, long jobId){
+    private void planTrigger(TriggerPlan triggerPlan, List<Alarm> scheduleList, long nowTime) throws Exception {
+        for (Alarm alarm : scheduleList) {
+
+            // time-ring jump
+            if (nowTime > alarm.getTriggerNextTime() + PRE_READ_MS) {
+                // 2.1、trigger-expire > 5s：pass && make next-trigger-time
+                LOGGER.warn(">>>>>>>>>>> schedule misfire, alarmId = {}", alarm.getId());
+
+                // 1、misfire match
+                // FIRE_ONCE_NOW 》 trigger
+                triggerPlan.triggerNow(alarm.getId());
+
+                // 2、fresh next
+                refreshNextValidTime(alarm, new Date());
+
+            } else if (nowTime > alarm.getTriggerNextTime()) {
+                // 2.2、trigger-expire < 5s：direct-trigger && make next-trigger-time
+
+                // 1、trigger, or wait for the spread offset
+                long spreadTime = spreadTriggerTime(alarm, alarm.getTriggerNextTime());
+                if (spreadTime > nowTime) {
+                    triggerPlan.triggerAt(alarm.getId(), spreadTime);
+                } else {
+                    triggerPlan.triggerNow(alarm.getId());
+                }
+
+                // 2、fresh next
+                refreshNextValidTime(alarm, new Date());
+
+                // next-trigger-time in 5s, pre-read again
+                if (nowTime + PRE_READ_MS > alarm.getTriggerNextTime()) {
+
+                    // 1、push time ring
+                    triggerPlan.triggerAt(alarm.getId(), spreadTriggerTime(alarm, alarm.getTriggerNextTime()));
+
+                    // 2、fresh next
+                    refreshNextValidTime(alarm, new Date(alarm.getTriggerNextTime()));
+
+                }
+
+            } else {
+                // 2.3、trigger-pre-read：time-ring trigger && make next-trigger-time
+
+                // 1、push time ring
+                triggerPlan.triggerAt(alarm.getId(), spreadTriggerTime(alarm, alarm.getTriggerNextTime()));
+
+                // 2、fresh next
+                refreshNextValidTime(alarm, new Date(alarm.getTriggerNextTime()));
+
+            }
+
+            // trigger_last_time is the recovery point of this alarm until the plan is dispatched
+            if (alarm.getTriggerLastTime() > 0) {
+                triggerPlan.cover(spreadTriggerTime(alarm, alarm.getTriggerLastTime()));
+            }
+
+        }
+    }
+
+    /**
+     * 打散同一时刻触发的固定间隔监控：按alarm id得到一个稳定的偏移量，偏移量小于触发间隔，触发节奏不变。
+     * trigger_next_time仍然按cron计算，偏移只作用于放入时间轮的触发时间
+     */
+    private long spreadTriggerTime(Alarm alarm, long triggerTime) throws Exception {
+        long spreadMaxMs = ScheduleConfig.getInstance().getSpreadMaxMs();
+        if (spreadMaxMs <= 0) {
+            return triggerTime;
+        }
+        long window = Math.min(CronScheduleCache.get(alarm.getCron()).getFixedPeriod(), spreadMaxMs) / 1000;
+        if (window <= 1) {
+            return triggerTime;
+        }
+        // fibonacci hashing, consecutive ids spread evenly and independent of id % partitionCount
+        long offset = ((alarm.getId() * 0x9E3779B97F4A7C15L) >>> 33) % window;
+        return triggerTime + offset * 1000;
+    }
+
+    private void pushTimeRing(long triggerTime, long alarmId){
         // push async ring
-        List<Long> ringItemData = ringData.get(ringSecond);
-        if (ringItemData == null) {
-            ringItemData = new ArrayList<>();
-            ringData.put(ringSecond, ringItemData);
+        if (!timingWheel.add(alarmId, triggerTime)) {
+            // ring tick already passed, trigger directly
+            JobTriggerHelper.trigger(alarmId, triggerTime);
+            return;
         }
-        ringItemData.add(jobId);
+        plannedUntil.merge((int) (alarmId % SchedulePartitionHelper.getInstance().getPartitionCount()), triggerTime, Math::max);
 
-        LOGGER.debug(">>>>>>>>>>> schedule push time-ring : " + ringSecond + " = " + Arrays.asList(ringItemData) );
+        LOGGER.debug(">>>>>>>>>>> schedule push time-ring : {} = {}", triggerTime, alarmId);
+    }
+
+    private static void ringTrigger(long alarmId, long triggerTime) {
+        try {
+            JobTriggerHelper.trigger(alarmId, triggerTime);
+        } catch (Exception e) {
+            LOGGER.error(">>>>>>>>>>> time-ring trigger error, alarmId = {}", alarmId, e);
+        }
+    }
+
+    /**
+     * 一条多行update语句刷新一批alarm的调度时间，代替逐条update。
+     * 只更新本节点仍持有租约且fencing token未变化的分区中的alarm
+     *
+     * @return 匹配的行数(mysql驱动默认useAffectedRows=false，返回匹配行数)，小于alarmList.size()表示有分区的租约已经丢失
+     */
+    private int batchScheduleUpdate(Connection conn, List<Alarm> alarmList, int partitionCount, String nodeId,
+                                    Map<Integer, Long> leases) throws SQLException {
+        StringBuilder leaseList = new StringBuilder();
+        for (int i = 0; i < leases.size(); i++) {
+            leaseList.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+        }
+        String fence = " and exists (select 1 from schedule_partition p where p.partition_id = mod(alarm.id, ?) and p.holder = ?"
+                + " and p.lease_expire > ? and (p.partition_id, p.fencing_token) in (" + leaseList + "))";
+
+        int updated = 0;
+        for (int from = 0; from < alarmList.size(); from += SCHEDULE_UPDATE_BATCH_SIZE) {
+            List<Alarm> batch = alarmList.subList(from, Math.min(from + SCHEDULE_UPDATE_BATCH_SIZE, alarmList.size()));
+            StringBuilder lastTimeCase = new StringBuilder();
+            StringBuilder nextTimeCase = new StringBuilder();
+            StringBuilder idList = new StringBuilder();
+            for (int i = 0; i < batch.size(); i++) {
+                lastTimeCase.append(" when ? then ?");
+                nextTimeCase.append(" when ? then ?");
+                idList.append(i == 0 ? "?" : ",?");
+            }
+            String sql = "update alarm set trigger_last_time = case id" + lastTimeCase + " end, trigger_next_time = case id"
+                    + nextTimeCase + " end where id in (" + idList + ")" + fence;
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (Alarm alarm : batch) {
+                    statement.setLong(index++, alarm.getId());
+                    statement.setLong(index++, alarm.getTriggerLastTime());
+                }
+                for (Alarm alarm : batch) {
+                    statement.setLong(index++, alarm.getId());
+                    statement.setLong(index++, alarm.getTriggerNextTime());
+                }
+                for (Alarm alarm : batch) {
+                    statement.setLong(index++, alarm.getId());
+                }
+                statement.setInt(index++, partitionCount);
+                statement.setString(index++, nodeId);
+                statement.setLong(index++, System.currentTimeMillis());
+                for (Map.Entry<Integer, Long> lease : leases.entrySet()) {
+                    statement.setInt(index++, lease.getKey());
+                    statement.setLong(index++, lease.getValue());
+                }
+                updated += statement.executeUpdate();
+            }
+        }
+        return updated;
     }
 
     public static Date generateNextValidTime(String cron, Date fromTime) throws Exception {
-        Date nextValidTime = new CronExpression(cron).getNextValidTimeAfter(fromTime);
-        return nextValidTime;
+        long nextValidTime = CronScheduleCache.get(cron).nextValidTimeAfter(fromTime.getTime());
+        return nextValidTime < 0 ? null : new Date(nextValidTime);
+    }
+
+    /**
+     * 查询预读之后已被删除的监控，用于区分删除和租约失效导致的更新数量不足
+     */
+    private Set<Long> findMissing(Connection conn, List<Alarm> alarmList) throws SQLException {
+        Set<Long> missing = new HashSet<>();
+        for (int from = 0; from < alarmList.size(); from += SCHEDULE_UPDATE_BATCH_SIZE) {
+            List<Alarm> batch = alarmList.subList(from, Math.min(from + SCHEDULE_UPDATE_BATCH_SIZE, alarmList.size()));
+            StringBuilder idList = new StringBuilder();
+            for (int i = 0; i < batch.size(); i++) {
+                idList.append(i == 0 ? "?" : ",?");
+                missing.add(batch.get(i).getId());
+            }
+            try (PreparedStatement statement = conn.prepareStatement("select id from alarm where id in (" + idList + ")")) {
+                int index = 1;
+                for (Alarm alarm : batch) {
+                    statement.setLong(index++, alarm.getId());
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        missing.remove(resultSet.getLong(1));
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 一次预读产生的触发计划，事务提交后再执行，租约校验失败回滚时整体丢弃
+     */
+    private class TriggerPlan {
+
+        private long[] alarmIds = new long[64];
+
+        /**
+         * 0表示立即触发, 否则表示时间轮触发时间
+         */
+        private long[] triggerTimes = new long[64];
+
+        private int size;
+
+        private long earliest = Long.MAX_VALUE;
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * 计划中最早的恢复时间，计划执行前本节点的fired_until不能超过它
+         */
+        long getEarliest() {
+            return earliest;
+        }
+
+        void cover(long triggerTime) {
+            earliest = Math.min(earliest, triggerTime);
+        }
+
+        void triggerNow(long alarmId) {
+            triggerAt(alarmId, 0L);
+        }
+
+        void triggerAt(long alarmId, long triggerTime) {
+            if (size == alarmIds.length) {
+                alarmIds = Arrays.copyOf(alarmIds, size << 1);
+                triggerTimes = Arrays.copyOf(triggerTimes, size << 1);
+            }
+            alarmIds[size] = alarmId;
+            triggerTimes[size] = triggerTime;
+            size++;
+        }
+
+        /**
+         * 移除已被删除的监控，最早恢复时间保持不变，只会更保守
+         */
+        void remove(Set<Long> removed) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!removed.contains(alarmIds[i])) {
+                    alarmIds[kept] = alarmIds[i];
+                    triggerTimes[kept] = triggerTimes[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+
+        void dispatch() {
+            // fires due now are recorded at the recovery point of the plan, no later than their trigger_last_time
+            long nowFireTime = Math.min(earliest, System.currentTimeMillis());
+            for (int i = 0; i < size; i++) {
+                try {
+                    if (triggerTimes[i] == 0L) {
+                        JobTriggerHelper.trigger(alarmIds[i], nowFireTime);
+                        LOGGER.debug(">>>>>>>>>>> schedule push trigger : alarmId = {}", alarmIds[i]);
+                    } else {
+                        pushTimeRing(triggerTimes[i], alarmIds[i]);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error(">>>>>>>>>>> schedule dispatch error, alarmId = {}", alarmIds[i], e);
+                }
+            }
+        }
     }
 }
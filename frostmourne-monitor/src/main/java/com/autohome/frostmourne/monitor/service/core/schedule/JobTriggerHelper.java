@@ -1,13 +1,18 @@
 package com.autohome.frostmourne.monitor.service.core.schedule;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.autohome.frostmourne.monitor.config.ScheduleConfig;
 import org.slf4j.Logger;
@@ -17,14 +22,86 @@ public class JobTriggerHelper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JobTriggerHelper.class);
 
+    /**
+     * 最近执行耗时的指数平均值超过该值的监控使用慢线程池
+     */
+    public static final long SLOW_COST_MS = 5000;
+
+    public static final long OVERFLOW_RETRY_MS = 100;
+
+    /**
+     * 批量远程触发时等待凑满一批的最长时间
+     */
+    public static final long BATCH_LINGER_MS = 50;
+
+    /**
+     * 停止时等待溢出队列、批量队列和线程池队列中的触发开始执行的最长时间
+     */
+    public static final long STOP_WAIT_MS = 10000;
+
     private ThreadPoolExecutor fastTriggerPool = null;
     private ThreadPoolExecutor slowTriggerPool = null;
 
-    // job timeout count
-    private volatile long minTim = System.currentTimeMillis() / 60000;     // ms > min
-    private volatile ConcurrentMap<Long, AtomicInteger> jobTimeoutCountMap = new ConcurrentHashMap<>();
+    /**
+     * 已提交但还没有开始执行的监控和触发时间，同一个监控最多只有一次等待中的触发，重复的触发合并。
+     * 其中最早的触发时间限制本节点的fired_until，宕机或停止时没有开始执行的触发由接管者恢复
+     */
+    private final ConcurrentMap<Long, Long> pendingAlarms = new ConcurrentHashMap<>();
+
+    /**
+     * 远程批量触发请求中、还没有被执行节点接收的监控和触发时间
+     */
+    private final ConcurrentMap<Long, Long> sendingAlarms = new ConcurrentHashMap<>();
+
+    /**
+     * 线程池队列满时的溢出队列，不丢弃触发；由于合并了重复触发，长度不会超过监控数量
+     */
+    private final LinkedBlockingDeque<Long> overflowQueue = new LinkedBlockingDeque<>();
+
+    /**
+     * 每个监控最近执行耗时的指数平均值(毫秒)，用于区分快慢线程池
+     */
+    private final ConcurrentMap<Long, Long> jobCostMap = new ConcurrentHashMap<>();
+
+    /**
+     * 远程批量触发时等待发送的监控
+     */
+    private final LinkedBlockingQueue<Long> batchQueue = new LinkedBlockingQueue<>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong batchRequestCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private volatile boolean overflowThreadToStop = false;
+
+    /**
+     * 停止中不再接收新的触发，新的触发只记录为未开始执行，随fired_until移交
+     */
+    private volatile boolean stopping = false;
+
+    private Thread overflowThread;
+
+    private Thread batchThread;
 
     public void start() {
+        // triggers left by the last stop were handed off with the released partitions
+        pendingAlarms.clear();
+        sendingAlarms.clear();
+        overflowQueue.clear();
+        batchQueue.clear();
+        overflowThreadToStop = false;
+        stopping = false;
+
+        RejectedExecutionHandler overflowHandler = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                rejectedCount.incrementAndGet();
+                overflowQueue.offer(((TriggerTask) runnable).alarmId);
+            }
+        };
+
         this.fastTriggerPool = new ThreadPoolExecutor(10,
                 ScheduleConfig.getInstance().getTriggerPoolFastMax(),
                 60L,
@@ -35,7 +112,8 @@ public class JobTriggerHelper {
                     public Thread newThread(Runnable runnable) {
                         return new Thread(runnable, "JobTriggerHelper-fastTriggerPool" + runnable.hashCode());
                     }
-                });
+                },
+                overflowHandler);
 
         slowTriggerPool = new ThreadPoolExecutor(
                 10,
@@ -48,55 +126,235 @@ public class JobTriggerHelper {
                     public Thread newThread(Runnable r) {
                         return new Thread(r, "JobTriggerHelper-slowTriggerPool-" + r.hashCode());
                     }
-                });
+                },
+                overflowHandler);
+
+        // overflow thread, resubmit when pool has capacity again
+        overflowThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!overflowThreadToStop) {
+                    try {
+                        Long alarmId = overflowQueue.take();
+                        ThreadPoolExecutor triggerPool_ = choosePool(alarmId);
+                        if (triggerPool_.getQueue().remainingCapacity() == 0) {
+                            // still full, keep the order and wait
+                            overflowQueue.offerFirst(alarmId);
+                            TimeUnit.MILLISECONDS.sleep(OVERFLOW_RETRY_MS);
+                            continue;
+                        }
+                        triggerPool_.execute(new TriggerTask(alarmId));
+                    } catch (InterruptedException e) {
+                        if (!overflowThreadToStop) {
+                            LOGGER.error(e.getMessage(), e);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.error(">>>>>>>>>>> JobTriggerHelper#overflowThread", e);
+                    }
+                }
+                LOGGER.info(">>>>>>>>>>> JobTriggerHelper#overflowThread stop");
+            }
+        });
+        overflowThread.setDaemon(true);
+        overflowThread.setName("JobTriggerHelper#overflowThread");
+        overflowThread.start();
+
+        if (isBatchRemote()) {
+            // batch thread, send alarms due in the same tick to executor in a few requests
+            batchThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!overflowThreadToStop) {
+                        try {
+                            List<Long> alarmIds = takeBatch(ScheduleConfig.getInstance().getTriggerRemoteBatchSize());
+                            dispatchBatch(alarmIds);
+                        } catch (InterruptedException e) {
+                            if (!overflowThreadToStop) {
+                                LOGGER.error(e.getMessage(), e);
+                            }
+                        } catch (Exception e) {
+                            LOGGER.error(">>>>>>>>>>> JobTriggerHelper#batchThread", e);
+                        }
+                    }
+                    LOGGER.info(">>>>>>>>>>> JobTriggerHelper#batchThread stop");
+                }
+            });
+            batchThread.setDaemon(true);
+            batchThread.setName("JobTriggerHelper#batchThread");
+            batchThread.start();
+        }
     }
 
     public void stop() {
+        stop(STOP_WAIT_MS);
+    }
+
+    /**
+     * 停止接收新的触发，在waitMs内把溢出队列、批量队列和线程池队列中的触发执行完。
+     * 超时后没有开始执行的触发保留在pendingAlarms中，释放分区时fired_until停在它们之前，由接管者恢复
+     */
+    void stop(long waitMs) {
+        // 1、stop accepting new fires
+        stopping = true;
+        long deadline = System.currentTimeMillis() + waitMs;
+
+        // 2、drain overflow and batch queue into the pools and the executor
+        try {
+            while ((!overflowQueue.isEmpty() || !batchQueue.isEmpty() || !sendingAlarms.isEmpty())
+                    && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(OVERFLOW_RETRY_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        overflowThreadToStop = true;
+        overflowThread.interrupt();
+        if (batchThread != null) {
+            batchThread.interrupt();
+        }
+        try {
+            overflowThread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            if (batchThread != null) {
+                batchThread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            }
+
+            // 3、queued tasks still run
+            fastTriggerPool.shutdown();
+            slowTriggerPool.shutdown();
+            fastTriggerPool.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            slowTriggerPool.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // 4、the rest never start, they stay pending and are handed off
         fastTriggerPool.shutdownNow();
         slowTriggerPool.shutdownNow();
+        int handOff = pendingAlarms.size() + sendingAlarms.size();
+        if (handOff > 0) {
+            LOGGER.warn("stop trigger pool, hand off {} triggers not started, earliest fire time: {}", handOff, getEarliestPending());
+        }
         LOGGER.info("stop trigger pool");
     }
 
-    public void addTask(final Long alarmId) {
-        // choose thread pool
-        ThreadPoolExecutor triggerPool_ = fastTriggerPool;
-        AtomicInteger jobTimeoutCount = jobTimeoutCountMap.get(alarmId);
-        if (jobTimeoutCount!=null && jobTimeoutCount.get() > 10) {      // job-timeout 10 times in 1 min
-            triggerPool_ = slowTriggerPool;
+    /**
+     * @param fireTime 触发时间，开始执行前本节点的fired_until不会超过它
+     */
+    public void addTask(final Long alarmId, long fireTime) {
+        // coalesce, the pending one will run with the latest data
+        if (pendingAlarms.putIfAbsent(alarmId, fireTime) != null) {
+            coalescedCount.incrementAndGet();
+            return;
+        }
+        if (stopping) {
+            // not started, fired_until stays before it
+            return;
         }
 
-        // trigger
-        triggerPool_.execute(new Runnable() {
-            @Override
-            public void run() {
+        if (isBatchRemote()) {
+            batchQueue.offer(alarmId);
+            return;
+        }
 
-                long start = System.currentTimeMillis();
+        // trigger, rejected task goes to overflow queue
+        choosePool(alarmId).execute(new TriggerTask(alarmId));
+    }
 
-                try {
-                    // do trigger
-                    ScheduleConfig.getInstance().getRemoteTriggerService().trigger(alarmId);
-                } catch (Exception e) {
-                    LOGGER.error(e.getMessage(), e);
-                } finally {
+    private boolean isBatchRemote() {
+        return !ScheduleConfig.getInstance().getTriggerLocal() && ScheduleConfig.getInstance().getTriggerRemoteBatchSize() > 0;
+    }
 
-                    // check timeout-count-map
-                    long minTim_now = System.currentTimeMillis()/60000;
-                    if (minTim != minTim_now) {
-                        minTim = minTim_now;
-                        jobTimeoutCountMap.clear();
-                    }
+    private List<Long> takeBatch(int batchSize) throws InterruptedException {
+        List<Long> alarmIds = new ArrayList<>(batchSize);
+        alarmIds.add(batchQueue.take());
+        long lingerUntil = System.currentTimeMillis() + BATCH_LINGER_MS;
+        while (alarmIds.size() < batchSize) {
+            batchQueue.drainTo(alarmIds, batchSize - alarmIds.size());
+            long wait = lingerUntil - System.currentTimeMillis();
+            if (alarmIds.size() >= batchSize || wait <= 0) {
+                break;
+            }
+            Long alarmId = batchQueue.poll(wait, TimeUnit.MILLISECONDS);
+            if (alarmId == null) {
+                break;
+            }
+            alarmIds.add(alarmId);
+        }
+        return alarmIds;
+    }
 
-                    // incr timeout-count-map
-                    long cost = System.currentTimeMillis()-start;
-                    if (cost > 5000) {       // ob-timeout threshold 5000ms
-                        AtomicInteger timeoutCount = jobTimeoutCountMap.putIfAbsent(alarmId, new AtomicInteger(1));
-                        if (timeoutCount != null) {
-                            timeoutCount.incrementAndGet();
-                        }
-                    }
+    private void dispatchBatch(List<Long> alarmIds) throws InterruptedException {
+        for (Long alarmId : alarmIds) {
+            // a new fire during the request is queued again, this one is not fired until accepted
+            Long fireTime = pendingAlarms.remove(alarmId);
+            sendingAlarms.put(alarmId, fireTime == null ? System.currentTimeMillis() : fireTime);
+        }
+        batchRequestCount.incrementAndGet();
+        List<Long> rejectedIds = ScheduleConfig.getInstance().getRemoteTriggerService().triggerBatch(alarmIds);
+        Set<Long> rejected = new HashSet<>(rejectedIds);
+        for (Long alarmId : alarmIds) {
+            if (!rejected.contains(alarmId)) {
+                sendingAlarms.remove(alarmId);
+            }
+        }
+        if (!rejectedIds.isEmpty()) {
+            // executor queue is full or request failed, retry later instead of dropping
+            rejectedCount.addAndGet(rejectedIds.size());
+            LOGGER.warn("remote batch trigger not accepted {} alarms, retry later", rejectedIds.size());
+            TimeUnit.MILLISECONDS.sleep(OVERFLOW_RETRY_MS);
+            for (Long alarmId : rejected) {
+                Long fireTime = sendingAlarms.get(alarmId);
+                if (fireTime != null) {
+                    addTask(alarmId, fireTime);
+                    sendingAlarms.remove(alarmId);
                 }
             }
-        });
+        }
+    }
+
+    private ThreadPoolExecutor choosePool(Long alarmId) {
+        Long cost = jobCostMap.get(alarmId);
+        if (cost != null && cost > SLOW_COST_MS) {
+            return slowTriggerPool;
+        }
+        return fastTriggerPool;
+    }
+
+    private void recordCost(Long alarmId, long cost) {
+        // ewma: 3/4 history + 1/4 current, a slow job recovers after a few fast runs
+        jobCostMap.merge(alarmId, cost, (history, current) -> (history * 3 + current) / 4);
+    }
+
+    private class TriggerTask implements Runnable {
+
+        private final Long alarmId;
+
+        TriggerTask(Long alarmId) {
+            this.alarmId = alarmId;
+        }
+
+        @Override
+        public void run() {
+            pendingAlarms.remove(alarmId);
+            long start = System.currentTimeMillis();
+            try {
+                // do trigger
+                doTrigger(alarmId);
+            } catch (Exception e) {
+                LOGGER.error(e.getMessage(), e);
+            } finally {
+                recordCost(alarmId, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    private void doTrigger(Long alarmId) {
+        if (ScheduleConfig.getInstance().getTriggerLocal()) {
+            // local executor, no http loopback
+            ScheduleConfig.getInstance().getLocalTriggerService().trigger(alarmId);
+        } else {
+            ScheduleConfig.getInstance().getRemoteTriggerService().trigger(alarmId);
+        }
     }
 
     private static JobTriggerHelper instance = new JobTriggerHelper();
@@ -109,7 +367,58 @@ public class JobTriggerHelper {
         instance.stop();
     }
 
-    public static void trigger(Long alarmId) {
-        instance.addTask(alarmId);
+    static void toStop(long waitMs) {
+        instance.stop(waitMs);
+    }
+
+    public static void trigger(Long alarmId, long fireTime) {
+        instance.addTask(alarmId, fireTime);
+    }
+
+    /**
+     * 还没有开始执行的触发中最早的触发时间，没有时为Long.MAX_VALUE
+     */
+    public long getEarliestPending() {
+        long earliest = Long.MAX_VALUE;
+        for (Long fireTime : pendingAlarms.values()) {
+            earliest = Math.min(earliest, fireTime);
+        }
+        for (Long fireTime : sendingAlarms.values()) {
+            earliest = Math.min(earliest, fireTime);
+        }
+        return earliest;
+    }
+
+    public static long getEarliestPendingTime() {
+        return instance.getEarliestPending();
+    }
+
+    /**
+     * 线程池队列满、转入溢出队列的触发次数
+     */
+    public static long getRejectedCount() {
+        return instance.rejectedCount.get();
+    }
+
+    /**
+     * 监控已有等待中的触发、被合并的触发次数
+     */
+    public static long getCoalescedCount() {
+        return instance.coalescedCount.get();
+    }
+
+    public static int getOverflowSize() {
+        return instance.overflowQueue.size();
+    }
+
+    /**
+     * 远程批量触发的请求次数
+     */
+    public static long getBatchRequestCount() {
+        return instance.batchRequestCount.get();
+    }
+
+    public static int getBatchQueueSize() {
+        return instance.batchQueue.size();
     }
 }
@@ -0,0 +1,29 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+import javax.annotation.Resource;
+
+import com.autohome.frostmourne.monitor.service.core.execute.IAlarmService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * 调度节点同时也是执行节点时，直接在本进程内执行监控，省去一次http回环调用
+ */
+@Service
+public class LocalTriggerService implements ILocalTriggerService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalTriggerService.class);
+
+    @Resource
+    private IAlarmService alarmService;
+
+    @Override
+    public void trigger(Long alarmId) {
+        try {
+            alarmService.run(alarmId, false);
+        } catch (Exception ex) {
+            LOGGER.error("error when trigger local, id: {}", alarmId, ex);
+        }
+    }
+}
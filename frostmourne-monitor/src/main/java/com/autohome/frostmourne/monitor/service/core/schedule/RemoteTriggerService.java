@@ -1,5 +1,8 @@
 package com.autohome.frostmourne.monitor.service.core.schedule;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Resource;
 
 import com.autohome.frostmourne.core.contract.Protocol;
@@ -8,6 +11,9 @@ import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
@@ -16,6 +22,10 @@ public class RemoteTriggerService implements IRemoteTriggerService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RemoteTriggerService.class);
 
+    private static final ParameterizedTypeReference<Protocol<Map<Long, String>>> BATCH_RESPONSE_TYPE =
+            new ParameterizedTypeReference<Protocol<Map<Long, String>>>() {
+            };
+
     @Resource
     private RestTemplate restTemplate;
 
@@ -35,4 +45,27 @@ public class RemoteTriggerService implements IRemoteTriggerService {
         }
 
     }
+
+    @Override
+    public List<Long> triggerBatch(List<Long> alarmIds) {
+        try {
+            Protocol<Map<Long, String>> protocol = restTemplate.exchange(String.format("%s/alarm/runBatch?_appId=frostmourne-monitor", frostmourneMonitorAddress),
+                    HttpMethod.POST, new HttpEntity<>(alarmIds), BATCH_RESPONSE_TYPE).getBody();
+            if (protocol == null || protocol.getReturncode() != 0) {
+                LOGGER.error("error when trigger remote batch, size: {}, response: {}", alarmIds.size(), JacksonUtil.serialize(protocol));
+                return alarmIds;
+            }
+            List<Long> rejectedIds = new ArrayList<>();
+            for (Map.Entry<Long, String> entry : protocol.getResult().entrySet()) {
+                if ("REJECTED".equals(entry.getValue())) {
+                    rejectedIds.add(entry.getKey());
+                }
+            }
+            return rejectedIds;
+        } catch (Exception ex) {
+            LOGGER.error("error when trigger remote batch, size: {}", alarmIds.size(), ex);
+            // not known to be accepted, retried after backoff, a duplicate run is coalesced by the executor
+            return alarmIds;
+        }
+    }
 }
@@ -0,0 +1,308 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.autohome.frostmourne.monitor.config.ScheduleConfig;
+import com.autohome.frostmourne.monitor.contract.enums.AlarmStatus;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.Alarm;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IAlarmRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 调度内存索引，代替每秒一次的querySchedule扫表
+ * <p>
+ * 按分区加载本节点持有分区中开启的监控，每个分区一个以trigger_next_time排序的小顶堆，取到期监控为O(log n)。
+ * 索引变化来源：
+ * <ul>
+ *     <li>分区变化：新持有的分区全量加载，失去的分区直接丢弃</li>
+ *     <li>本节点保存、开关、删除监控：markChanged后下一次调度按id重新读取</li>
+ *     <li>其他节点的修改：每SYNC_MS按modify_at增量同步</li>
+ *     <li>其他节点的删除：执行或更新调度信息时发现监控不存在，markChanged后移除</li>
+ *     <li>其他无法增量感知的变化：每reloadMs全量重新加载</li>
+ * </ul>
+ * 除markChanged外，所有方法只能由schedule thread调用。
+ */
+public class ScheduleIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleIndex.class);
+
+    private static ScheduleIndex instance = new ScheduleIndex();
+
+    public static ScheduleIndex getInstance() {
+        return instance;
+    }
+
+    public static final long SYNC_MS = 5000;            // incremental sync period
+
+    /**
+     * 增量同步向前多取的时间，覆盖modify_at的秒级精度和节点间时钟误差
+     */
+    public static final long SYNC_OVERLAP_MS = 10000;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    private final Map<Integer, PriorityQueue<Entry>> queues = new HashMap<>();
+
+    private final ConcurrentLinkedQueue<Long> changedAlarms = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 本次pollDue取出、等待commit或rollback的监控
+     */
+    private final List<Alarm> polled = new ArrayList<>();
+
+    private volatile boolean started = false;
+
+    private long reloadMs;
+
+    private int partitionCount;
+
+    private Set<Integer> loadedPartitions = Collections.emptySet();
+
+    private long lastSyncTime;
+
+    private long lastReloadTime;
+
+    public void start(long reloadMs) {
+        this.reloadMs = reloadMs;
+        this.started = true;
+    }
+
+    /**
+     * 监控保存、开关、删除或发现监控不存在后调用，可以被任意线程调用
+     */
+    public void markChanged(Long alarmId) {
+        if (started && alarmId != null) {
+            changedAlarms.add(alarmId);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 按持有分区和数据库变化刷新索引
+     */
+    public void refresh(List<Integer> ownedPartitions, int partitionCount, long now) {
+        IAlarmRepository alarmRepository = ScheduleConfig.getInstance().getAlarmRepository();
+        Set<Integer> owned = new HashSet<>(ownedPartitions);
+
+        if (partitionCount != this.partitionCount || now - lastReloadTime >= reloadMs) {
+            // full reload
+            changedAlarms.clear();
+            entries.clear();
+            queues.clear();
+            this.partitionCount = partitionCount;
+            this.loadedPartitions = owned;
+            this.lastReloadTime = now;
+            this.lastSyncTime = now;
+            if (!owned.isEmpty()) {
+                load(alarmRepository.queryScheduleIndex(partitionCount, ownedPartitions));
+            }
+            LOGGER.info(">>>>>>>>>>> schedule index reload, partitions: {}, size: {}", ownedPartitions, entries.size());
+            return;
+        }
+
+        if (!owned.equals(loadedPartitions)) {
+            List<Integer> acquired = new ArrayList<>();
+            for (Integer partition : owned) {
+                if (!loadedPartitions.contains(partition)) {
+                    acquired.add(partition);
+                }
+            }
+            for (Integer partition : loadedPartitions) {
+                if (!owned.contains(partition)) {
+                    unload(partition);
+                }
+            }
+            loadedPartitions = owned;
+            if (!acquired.isEmpty()) {
+                load(alarmRepository.queryScheduleIndex(partitionCount, acquired));
+            }
+            LOGGER.info(">>>>>>>>>>> schedule index partitions changed: {}, size: {}", ownedPartitions, entries.size());
+        }
+
+        if (now - lastSyncTime >= SYNC_MS) {
+            List<Alarm> modifiedList = alarmRepository.queryModified(new Date(lastSyncTime - SYNC_OVERLAP_MS));
+            lastSyncTime = now;
+            for (Alarm alarm : modifiedList) {
+                upsert(alarm);
+            }
+        }
+
+        if (!changedAlarms.isEmpty()) {
+            Set<Long> alarmIds = new HashSet<>();
+            Long alarmId;
+            while ((alarmId = changedAlarms.poll()) != null) {
+                alarmIds.add(alarmId);
+            }
+            for (Long id : alarmIds) {
+                Optional<Alarm> optionalAlarm = alarmRepository.selectByPrimaryKey(id);
+                if (optionalAlarm.isPresent()) {
+                    upsert(optionalAlarm.get());
+                } else {
+                    entries.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按trigger_next_time从早到晚取出持有分区中不晚于maxNextTime的一页监控，可以连续调用翻页，之后必须调用commit或rollback
+     */
+    public List<Alarm> pollDue(List<Integer> partitions, long maxNextTime, int size) {
+        List<Alarm> page = new ArrayList<>();
+        while (page.size() < size) {
+            // 各分区堆顶中最早的一个
+            PriorityQueue<Entry> earliest = null;
+            for (Integer partition : partitions) {
+                PriorityQueue<Entry> queue = queues.get(partition);
+                Entry head = queue == null ? null : peekValid(queue);
+                if (head != null && head.triggerNextTime <= maxNextTime
+                        && (earliest == null || head.triggerNextTime < earliest.peek().triggerNextTime)) {
+                    earliest = queue;
+                }
+            }
+            if (earliest == null) {
+                break;
+            }
+            Entry entry = earliest.poll();
+            Alarm alarm = new Alarm();
+            alarm.setId(entry.alarmId);
+            alarm.setCron(entry.cron);
+            alarm.setTriggerNextTime(entry.triggerNextTime);
+            polled.add(alarm);
+            page.add(alarm);
+        }
+        return page;
+    }
+
+    /**
+     * 持有分区中剩余的不晚于maxNextTime的监控数量，只在一次调度处理不完时用于统计
+     */
+    public long countDue(List<Integer> partitions, long maxNextTime) {
+        long count = 0;
+        for (Integer partition : partitions) {
+            PriorityQueue<Entry> queue = queues.get(partition);
+            if (queue == null) {
+                continue;
+            }
+            for (Entry entry : queue) {
+                if (entry.triggerNextTime <= maxNextTime && entries.get(entry.alarmId) == entry) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 调度信息已经写入数据库，按新的trigger_next_time放回索引
+     */
+    public void commit() {
+        for (Alarm alarm : polled) {
+            Entry entry = entries.get(alarm.getId());
+            if (entry == null) {
+                continue;
+            }
+            if (alarm.getTriggerNextTime() == null || alarm.getTriggerNextTime() <= 0) {
+                entries.remove(alarm.getId());
+                continue;
+            }
+            entry.triggerNextTime = alarm.getTriggerNextTime();
+            queueOf(alarm.getId()).add(entry);
+        }
+        polled.clear();
+    }
+
+    /**
+     * 调度事务失败，按原trigger_next_time放回索引，下一次调度重试
+     */
+    public void rollback() {
+        for (Alarm alarm : polled) {
+            Entry entry = entries.get(alarm.getId());
+            if (entry != null) {
+                queueOf(alarm.getId()).add(entry);
+            }
+        }
+        polled.clear();
+    }
+
+    /**
+     * 丢弃堆顶已被替换或删除的过期条目，返回有效的堆顶
+     */
+    private Entry peekValid(PriorityQueue<Entry> queue) {
+        Entry head = queue.peek();
+        while (head != null && entries.get(head.alarmId) != head) {
+            queue.poll();
+            head = queue.peek();
+        }
+        return head;
+    }
+
+    private void load(List<Alarm> alarmList) {
+        for (Alarm alarm : alarmList) {
+            upsert(alarm);
+        }
+    }
+
+    private void upsert(Alarm alarm) {
+        Long alarmId = alarm.getId();
+        if (!AlarmStatus.OPEN.equals(alarm.getStatus()) || !loadedPartitions.contains(partitionOf(alarmId))) {
+            entries.remove(alarmId);
+            return;
+        }
+        long triggerNextTime = alarm.getTriggerNextTime() == null ? 0L : alarm.getTriggerNextTime();
+        Entry current = entries.get(alarmId);
+        if (current != null && current.triggerNextTime == triggerNextTime && current.cron.equals(alarm.getCron())) {
+            return;
+        }
+        Entry entry = new Entry(alarmId, alarm.getCron(), triggerNextTime);
+        entries.put(alarmId, entry);
+        queueOf(alarmId).add(entry);
+    }
+
+    private void unload(Integer partition) {
+        queues.remove(partition);
+        entries.keySet().removeIf(alarmId -> partitionOf(alarmId) == partition);
+    }
+
+    private PriorityQueue<Entry> queueOf(long alarmId) {
+        return queues.computeIfAbsent(partitionOf(alarmId), partition -> new PriorityQueue<>());
+    }
+
+    private int partitionOf(long alarmId) {
+        return (int) (alarmId % partitionCount);
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        private final long alarmId;
+
+        private final String cron;
+
+        private long triggerNextTime;
+
+        Entry(long alarmId, String cron, long triggerNextTime) {
+            this.alarmId = alarmId;
+            this.cron = cron;
+            this.triggerNextTime = triggerNextTime;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(triggerNextTime, other.triggerNextTime);
+        }
+    }
+}
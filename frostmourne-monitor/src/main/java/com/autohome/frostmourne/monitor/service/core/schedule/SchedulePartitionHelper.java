@@ -0,0 +1,303 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.autohome.frostmourne.monitor.config.ScheduleConfig;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.Alarm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 调度分区租约
+ * <p>
+ * alarm按id % partitionCount划分为多个分区，每个分区在schedule_partition表中有一条租约记录。
+ * 每个调度节点定时心跳并续约，按存活节点数计算应持有的分区数，多余的释放，不足的抢占空闲或过期的分区。
+ * 节点只预读和触发自己持有的分区，调度能力随节点数线性扩展；节点宕机后租约过期，分区由其他节点接管。
+ * <p>
+ * 每次抢占分区fencing token加1，调度写回trigger_next_time时校验持有者和token，
+ * 租约已经丢失或被接管后的写入不会生效，调度不再需要每秒select for update。
+ * <p>
+ * 预读时trigger_next_time已经推进，时间轮中的任务只在内存里。续约时把本节点已经触发到的时间写入fired_until，
+ * 接管分区的节点按trigger_last_time恢复fired_until之后的任务，节点宕机或停止时不会丢失已经预读的触发。
+ */
+public class SchedulePartitionHelper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchedulePartitionHelper.class);
+
+    private static SchedulePartitionHelper instance = new SchedulePartitionHelper();
+
+    public static SchedulePartitionHelper getInstance() {
+        return instance;
+    }
+
+    public static final long LEASE_TTL_MS = 15000;      // lease ttl
+
+    public static final long LEASE_RENEW_MS = 3000;     // heartbeat and renew period
+
+    /**
+     * 心跳超过该时间的节点记录会被清理
+     */
+    public static final long NODE_EXPIRE_MS = LEASE_TTL_MS * 10;
+
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    private int partitionCount = 1;
+
+    /**
+     * 当前持有的分区和对应的fencing token，只由lease thread整体替换
+     */
+    private volatile Map<Integer, Long> ownedLeases = Collections.emptyMap();
+
+    /**
+     * 本地视角下租约的有效期，留出一个续约周期的余量，续约失败后不再继续调度
+     */
+    private volatile long ownedValidUntil = 0;
+
+    private volatile boolean leaseThreadToStop = false;
+
+    private Thread leaseThread;
+
+    public void start(int partitionCount) {
+        this.partitionCount = Math.max(partitionCount, 1);
+
+        leaseThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean initialized = false;
+                while (!leaseThreadToStop) {
+                    try {
+                        if (!initialized) {
+                            initPartitions();
+                            initialized = true;
+                            LOGGER.info(">>>>>>>>>>> schedule partition init success, nodeId: {}, partitionCount: {}", nodeId, SchedulePartitionHelper.this.partitionCount);
+                        }
+                        refresh();
+                    } catch (Exception e) {
+                        if (!leaseThreadToStop) {
+                            LOGGER.error(">>>>>>>>>>> SchedulePartitionHelper#leaseThread", e);
+                        }
+                    }
+
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(LEASE_RENEW_MS);
+                    } catch (InterruptedException e) {
+                        if (!leaseThreadToStop) {
+                            LOGGER.error(e.getMessage(), e);
+                        }
+                    }
+                }
+                LOGGER.info(">>>>>>>>>>> SchedulePartitionHelper#leaseThread stop");
+            }
+        });
+        leaseThread.setDaemon(true);
+        leaseThread.setName("SchedulePartitionHelper#leaseThread");
+        leaseThread.start();
+    }
+
+    public void toStop() {
+        leaseThreadToStop = true;
+        leaseThread.interrupt();
+        try {
+            leaseThread.join();
+        } catch (InterruptedException e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+
+        ownedLeases = Collections.emptyMap();
+        ownedValidUntil = 0;
+
+        // 主动释放租约，其他节点下一次续约即可接管，不必等待过期；时间轮和触发线程池已经停止，未开始执行的触发随fired_until移交
+        try (Connection conn = ScheduleConfig.getInstance().getDruidDataSource().getConnection()) {
+            try (PreparedStatement statement = conn.prepareStatement("update schedule_partition set holder = '', lease_expire = 0, fired_until = ? where holder = ?")) {
+                statement.setLong(1, JobScheduleHelper.getInstance().getFiredWatermark());
+                statement.setString(2, nodeId);
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = conn.prepareStatement("delete from schedule_node where node_id = ?")) {
+                statement.setString(1, nodeId);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            LOGGER.error(">>>>>>>>>>> release schedule partition error, nodeId: {}", nodeId, e);
+        }
+        LOGGER.info(">>>>>>>>>>> SchedulePartitionHelper stop");
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * 当前持有且未过期的分区
+     *
+     * @return key: 分区编号, value: fencing token；按分区编号排序，不可修改
+     */
+    public Map<Integer, Long> getOwnedLeases() {
+        if (System.currentTimeMillis() >= ownedValidUntil) {
+            return Collections.emptyMap();
+        }
+        return ownedLeases;
+    }
+
+    private void initPartitions() throws SQLException {
+        try (Connection conn = ScheduleConfig.getInstance().getDruidDataSource().getConnection();
+             PreparedStatement statement = conn.prepareStatement("insert ignore into schedule_partition(partition_id, holder, lease_expire) values (?, '', 0)")) {
+            for (int i = 0; i < partitionCount; i++) {
+                statement.setInt(1, i);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void refresh() throws SQLException {
+        long now = System.currentTimeMillis();
+        long leaseExpire = now + LEASE_TTL_MS;
+        List<Integer> owned = new ArrayList<>();
+        Map<Integer, Long> leases = new TreeMap<>();
+        Map<Integer, Long> acquired = new HashMap<>();
+        JobScheduleHelper scheduleHelper = JobScheduleHelper.getInstance();
+
+        try (Connection conn = ScheduleConfig.getInstance().getDruidDataSource().getConnection()) {
+            // 1、heartbeat
+            try (PreparedStatement statement = conn.prepareStatement("insert into schedule_node(node_id, heartbeat_time) values (?, ?) on duplicate key update heartbeat_time = values(heartbeat_time)")) {
+                statement.setString(1, nodeId);
+                statement.setLong(2, now);
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = conn.prepareStatement("delete from schedule_node where heartbeat_time < ?")) {
+                statement.setLong(1, now - NODE_EXPIRE_MS);
+                statement.executeUpdate();
+            }
+
+            // 2、renew own leases, checkpoint the fired watermark
+            try (PreparedStatement statement = conn.prepareStatement("update schedule_partition set lease_expire = ?, fired_until = ? where holder = ? and lease_expire > ? and partition_id < ?")) {
+                statement.setLong(1, leaseExpire);
+                statement.setLong(2, scheduleHelper.getFiredWatermark());
+                statement.setString(3, nodeId);
+                statement.setLong(4, now);
+                statement.setInt(5, partitionCount);
+                statement.executeUpdate();
+            }
+
+            // 3、fair share by live nodes
+            int liveNodes;
+            try (PreparedStatement statement = conn.prepareStatement("select count(*) from schedule_node where heartbeat_time > ?")) {
+                statement.setLong(1, now - LEASE_TTL_MS);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    liveNodes = Math.max(resultSet.getInt(1), 1);
+                }
+            }
+            int share = (partitionCount + liveNodes - 1) / liveNodes;
+
+            List<Integer> free = new ArrayList<>();
+            Map<Integer, Long> firedUntil = new HashMap<>();
+            try (PreparedStatement statement = conn.prepareStatement("select partition_id, holder, lease_expire, fired_until from schedule_partition where partition_id < ? order by partition_id")) {
+                statement.setInt(1, partitionCount);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int partitionId = resultSet.getInt(1);
+                        if (nodeId.equals(resultSet.getString(2)) && resultSet.getLong(3) == leaseExpire) {
+                            owned.add(partitionId);
+                        } else if (resultSet.getLong(3) <= now) {
+                            free.add(partitionId);
+                            firedUntil.put(partitionId, resultSet.getLong(4));
+                        }
+                    }
+                }
+            }
+
+            // 4、release extra partitions, new nodes get them on their next renew
+            while (owned.size() > share) {
+                int partitionId = owned.remove(owned.size() - 1);
+                // time-ring entries of this partition are still fired here, the new holder starts after them
+                try (PreparedStatement statement = conn.prepareStatement("update schedule_partition set holder = '', lease_expire = 0, fired_until = ? where partition_id = ? and holder = ?")) {
+                    statement.setLong(1, scheduleHelper.getFiredUntil(partitionId));
+                    statement.setInt(2, partitionId);
+                    statement.setString(3, nodeId);
+                    statement.executeUpdate();
+                }
+                LOGGER.info(">>>>>>>>>>> schedule partition released: {}, nodeId: {}", partitionId, nodeId);
+            }
+
+            // 5、acquire free or expired partitions, conditional update keeps only one winner
+            for (Integer partitionId : free) {
+                if (owned.size() >= share) {
+                    break;
+                }
+                try (PreparedStatement statement = conn.prepareStatement("update schedule_partition set holder = ?, lease_expire = ?, fencing_token = fencing_token + 1 where partition_id = ? and lease_expire <= ?")) {
+                    statement.setString(1, nodeId);
+                    statement.setLong(2, leaseExpire);
+                    statement.setInt(3, partitionId);
+                    statement.setLong(4, now);
+                    if (statement.executeUpdate() > 0) {
+                        owned.add(partitionId);
+                        acquired.put(partitionId, firedUntil.get(partitionId));
+                        LOGGER.info(">>>>>>>>>>> schedule partition acquired: {}, nodeId: {}", partitionId, nodeId);
+                    }
+                }
+            }
+
+            // 6、fencing tokens of the leases held now
+            try (PreparedStatement statement = conn.prepareStatement("select partition_id, fencing_token from schedule_partition where holder = ? and lease_expire = ? and partition_id < ?")) {
+                statement.setString(1, nodeId);
+                statement.setLong(2, leaseExpire);
+                statement.setInt(3, partitionCount);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        leases.put(resultSet.getInt(1), resultSet.getLong(2));
+                    }
+                }
+            }
+        }
+
+        ownedLeases = Collections.unmodifiableMap(leases);
+        ownedValidUntil = leaseExpire - LEASE_RENEW_MS;
+
+        // 7、recover what the previous holder pre-read but did not fire
+        for (Map.Entry<Integer, Long> entry : acquired.entrySet()) {
+            recover(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 恢复原持有者fired_until之后的时间轮任务。fired_until为0表示分区从未被调度过，没有需要恢复的任务
+     */
+    private void recover(int partitionId, long firedUntil) {
+        if (firedUntil <= 0) {
+            return;
+        }
+        // 打散偏移可能让trigger_last_time早于fired_until的任务还没有触发，向前多取一个偏移范围
+        long lastTimeAfter = firedUntil - ScheduleConfig.getInstance().getSpreadMaxMs();
+        int recovered = 0;
+        for (Alarm alarm : ScheduleConfig.getInstance().getAlarmRepository().queryUnfired(partitionCount, partitionId, lastTimeAfter)) {
+            try {
+                if (JobScheduleHelper.getInstance().recover(alarm, firedUntil)) {
+                    recovered++;
+                }
+            } catch (Exception e) {
+                LOGGER.error(">>>>>>>>>>> schedule partition recover error, alarmId: {}", alarm.getId(), e);
+            }
+        }
+        if (recovered > 0) {
+            LOGGER.warn(">>>>>>>>>>> schedule partition {} recovered {} alarms fired after {}, nodeId: {}", partitionId, recovered, firedUntil, nodeId);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * 分层时间轮，替代原来按秒划分的60格ringData
+ * <p>
+ * 第0层每格tickMs毫秒，共wheelSize格；超出第0层范围的任务放入上一层，上一层每格跨度等于下一层的总跨度，按需创建。
+ * 时间推进到上一层某一格时，把该格中的任务重新放回下面的层级。每格用两个long数组保存alarmId和触发时间，
+ * 清空时只重置下标，推进过程不会产生装箱对象和新的数组。
+ * <p>
+ * 线程模型：add可以被任意线程调用，advance只能由一个线程(ring thread)调用；
+ * 加锁只覆盖内存中的格子操作，到期任务在锁外交给consumer处理。
+ */
+public class TimingWheel {
+
+    private final long tickMs;
+
+    private final int wheelSize;
+
+    private final List<Level> levels = new ArrayList<>();
+
+    /**
+     * 当前已经推进到的时间，tickMs的整数倍，小于等于该时间的格子都已经处理
+     */
+    private long currentTime;
+
+    private int size;
+
+    /**
+     * 从上层降级的任务，只在持有锁时使用
+     */
+    private final LongBucket cascade = new LongBucket();
+
+    /**
+     * 本次推进到期的任务，只被advance线程使用
+     */
+    private final LongBucket expired = new LongBucket();
+
+    public TimingWheel(long tickMs, int wheelSize, long startMs) {
+        if (tickMs <= 0 || wheelSize <= 1) {
+            throw new IllegalArgumentException("illegal timing wheel, tickMs: " + tickMs + ", wheelSize: " + wheelSize);
+        }
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.currentTime = startMs - startMs % tickMs;
+        this.levels.add(new Level(tickMs, wheelSize));
+    }
+
+    /**
+     * 添加任务
+     *
+     * @param id         alarm id
+     * @param expireMs   触发时间
+     * @return false表示触发时间已到(落在当前格之前)，没有放入时间轮，调用方需要直接触发
+     */
+    public synchronized boolean add(long id, long expireMs) {
+        if (!place(id, expireMs)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 把时间推进到nowMs，并把到期的任务交给consumer
+     *
+     * @param nowMs    当前时间
+     * @param consumer 到期任务处理
+     * @return 到期任务数量
+     */
+    public int advance(long nowMs, LongConsumer consumer) {
+        return advanceWithExpire(nowMs, (id, expireMs) -> consumer.accept(id));
+    }
+
+    /**
+     * 把时间推进到nowMs，到期任务和它的触发时间一起交给consumer
+     */
+    public int advanceWithExpire(long nowMs, ExpireConsumer consumer) {
+        synchronized (this) {
+            while (currentTime + tickMs <= nowMs) {
+                currentTime += tickMs;
+                cascadeUpperLevels();
+                Level level0 = levels.get(0);
+                level0.bucketOf(currentTime).drainTo(expired);
+            }
+            size -= expired.size();
+        }
+        return consume(consumer);
+    }
+
+    /**
+     * 取出全部未到期任务，用于停止调度时的移交
+     *
+     * @param consumer 任务处理, 参数为alarmId
+     * @return 任务数量
+     */
+    public int drainAll(LongConsumer consumer) {
+        synchronized (this) {
+            for (Level level : levels) {
+                for (LongBucket bucket : level.buckets) {
+                    bucket.drainTo(expired);
+                }
+            }
+            size = 0;
+        }
+        return consume(consumer);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getCurrentTime() {
+        return currentTime;
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    private int consume(LongConsumer consumer) {
+        return consume((id, expireMs) -> consumer.accept(id));
+    }
+
+    private int consume(ExpireConsumer consumer) {
+        int count = expired.size();
+        try {
+            for (int i = 0; i < count; i++) {
+                consumer.accept(expired.idAt(i), expired.expireAt(i));
+            }
+        } finally {
+            expired.clear();
+        }
+        return count;
+    }
+
+    private boolean place(long id, long expireMs) {
+        if (expireMs < currentTime + tickMs) {
+            return false;
+        }
+        int levelIndex = 0;
+        while (true) {
+            Level level = levelIndex < levels.size() ? levels.get(levelIndex) : newLevel();
+            if (expireMs < floor(currentTime, level.tickMs) + level.interval) {
+                level.bucketOf(expireMs).add(id, expireMs);
+                return true;
+            }
+            levelIndex++;
+        }
+    }
+
+    private Level newLevel() {
+        Level lower = levels.get(levels.size() - 1);
+        Level level = new Level(lower.interval, wheelSize);
+        levels.add(level);
+        return level;
+    }
+
+    /**
+     * currentTime跨过上层格子边界时，把上层对应格子的任务放回时间轮
+     */
+    private void cascadeUpperLevels() {
+        for (int i = 1; i < levels.size(); i++) {
+            Level level = levels.get(i);
+            if (currentTime % level.tickMs != 0) {
+                break;
+            }
+            level.bucketOf(currentTime).drainTo(cascade);
+        }
+        int count = cascade.size();
+        for (int i = 0; i < count; i++) {
+            long id = cascade.idAt(i);
+            long expireMs = cascade.expireAt(i);
+            if (!place(id, expireMs)) {
+                // 落在当前格, 和当前格一起到期
+                levels.get(0).bucketOf(currentTime).add(id, expireMs);
+            }
+        }
+        cascade.clear();
+    }
+
+    /**
+     * 到期任务处理, 参数为alarmId和触发时间
+     */
+    @FunctionalInterface
+    public interface ExpireConsumer {
+
+        void accept(long id, long expireMs);
+    }
+
+    private static long floor(long time, long unit) {
+        return time - time % unit;
+    }
+
+    private static class Level {
+
+        private final long tickMs;
+
+        private final long interval;
+
+        private final LongBucket[] buckets;
+
+        Level(long tickMs, int wheelSize) {
+            this.tickMs = tickMs;
+            this.interval = tickMs * wheelSize;
+            this.buckets = new LongBucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                this.buckets[i] = new LongBucket();
+            }
+        }
+
+        LongBucket bucketOf(long time) {
+            return buckets[(int) ((time / tickMs) % buckets.length)];
+        }
+    }
+
+    /**
+     * 基于long数组的格子，容量只增不减，避免反复分配
+     */
+    static class LongBucket {
+
+        private long[] ids = new long[16];
+
+        private long[] expires = new long[16];
+
+        private int size;
+
+        void add(long id, long expireMs) {
+            if (size == ids.length) {
+                int capacity = ids.length << 1;
+                long[] newIds = new long[capacity];
+                long[] newExpires = new long[capacity];
+                System.arraycopy(ids, 0, newIds, 0, size);
+                System.arraycopy(expires, 0, newExpires, 0, size);
+                ids = newIds;
+                expires = newExpires;
+            }
+            ids[size] = id;
+            expires[size] = expireMs;
+            size++;
+        }
+
+        void drainTo(LongBucket target) {
+            for (int i = 0; i < size; i++) {
+                target.add(ids[i], expires[i]);
+            }
+            size = 0;
+        }
+
+        long idAt(int index) {
+            return ids[index];
+        }
+
+        long expireAt(int index) {
+            return expires[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -39,6 +39,9 @@ public class AlertTemplateService implements IAlertTemplateService {
     @Resource
     private IDataAdminService dataAdminService;
 
+    @Resource
+    private ITemplateService templateService;
+
     @Override
     public void save(AlertTemplateSaveForm form,
                      String account) {
@@ -82,6 +85,11 @@ public class AlertTemplateService implements IAlertTemplateService {
         } else if (form.getContent().length() > 5000) {
             throw new ProtocolException(-1, "模板内容长度不能超过5000");
         }
+        try {
+            templateService.validate(form.getContent());
+        } catch (IllegalArgumentException ex) {
+            throw new ProtocolException(-1, "模板内容语法错误: " + ex.getMessage());
+        }
 
     }
 
@@ -5,4 +5,19 @@ import java.util.Map;
 public interface ITemplateService {
 
     String format(String template, Map<String, Object> env);
+
+    /**
+     * 使用监控缓存的编译结果渲染，模板内容变化时重新编译。alarmId为null时按内容缓存
+     */
+    String format(Long alarmId, String template, Map<String, Object> env);
+
+    /**
+     * 检查模板语法，不合法时抛出IllegalArgumentException
+     */
+    void validate(String template);
+
+    /**
+     * 编译监控的消息模板并缓存
+     */
+    void compile(Long alarmId, String template);
 }
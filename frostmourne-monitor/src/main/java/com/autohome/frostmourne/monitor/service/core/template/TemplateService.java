@@ -1,34 +1,109 @@
 package com.autohome.frostmourne.monitor.service.core.template;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
-import com.google.common.base.Charsets;
-import com.google.common.hash.Hashing;
-import freemarker.cache.StringTemplateLoader;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * 消息模板渲染
+ * <p>
+ * 监控的消息模板按监控id缓存编译后的Template，模板内容变化后重新编译并替换，保存监控时预先编译。
+ * 发送消息时只执行template.process，不再计算摘要，也不写入StringTemplateLoader。
+ * 没有监控id的模板(如自定义链接、测试执行)按内容缓存。两个缓存都有大小上限
+ */
 @Service
 public class TemplateService implements ITemplateService {
 
+    private static final long CONTENT_CACHE_SIZE = 1000;
+
+    private static final long CONTENT_EXPIRE_HOURS = 2;
+
     @Resource(name = "dynamicConfig")
     private Configuration dynamicConfig;
 
+    @Value("${template.cache.size:10000}")
+    private long cacheSize;
+
+    private Cache<Long, CompiledTemplate> alarmTemplates;
+
+    private final Cache<String, Template> contentTemplates = CacheBuilder.newBuilder()
+            .maximumSize(CONTENT_CACHE_SIZE)
+            .expireAfterAccess(CONTENT_EXPIRE_HOURS, TimeUnit.HOURS)
+            .build();
+
+    @PostConstruct
+    private void init() {
+        alarmTemplates = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(cacheSize, 1))
+                .build();
+    }
+
     @Override
     public String format(String template, Map<String, Object> env) {
-        String key = md5Key(template);
-        StringTemplateLoader loader = (StringTemplateLoader) dynamicConfig.getTemplateLoader();
-        loader.putTemplate(key, template);
+        Template compiled;
+        try {
+            compiled = contentTemplates.get(template, () -> parse("content", template));
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            throw new RuntimeException("error when compile template", ex.getCause());
+        }
+        return process(compiled, env);
+    }
+
+    @Override
+    public String format(Long alarmId, String template, Map<String, Object> env) {
+        if (alarmId == null) {
+            return format(template, env);
+        }
+        CompiledTemplate compiledTemplate = alarmTemplates.getIfPresent(alarmId);
+        if (compiledTemplate == null || !compiledTemplate.matches(template)) {
+            compiledTemplate = put(alarmId, template);
+        }
+        return process(compiledTemplate.template, env);
+    }
 
-        return process(dynamicConfig, key, env);
+    @Override
+    public void validate(String template) {
+        parse("validate", template);
     }
 
-    private String process(Configuration config, String key, Map<String, Object> env) {
+    @Override
+    public void compile(Long alarmId, String template) {
+        put(alarmId, template);
+    }
+
+    public long size() {
+        return alarmTemplates.size() + contentTemplates.size();
+    }
+
+    private CompiledTemplate put(Long alarmId, String template) {
+        CompiledTemplate compiledTemplate = new CompiledTemplate(template, parse("alarm-" + alarmId, template));
+        alarmTemplates.put(alarmId, compiledTemplate);
+        return compiledTemplate;
+    }
+
+    private Template parse(String name, String template) {
+        try {
+            return new Template(name, new StringReader(template == null ? "" : template), dynamicConfig);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+    }
+
+    private String process(Template template, Map<String, Object> env) {
         try {
-            Template template = config.getTemplate(key, "utf-8");
             StringWriter writer = new StringWriter();
             template.process(env, writer);
             return writer.toString();
@@ -37,7 +112,23 @@ public class TemplateService implements ITemplateService {
         }
     }
 
-    private static String md5Key(String content) {
-        return Hashing.md5().newHasher().putString(content, Charsets.UTF_8).hash().toString();
+    /**
+     * 模板内容和编译结果，内容就是模板的版本
+     */
+    private static class CompiledTemplate {
+
+        private final String source;
+
+        private final Template template;
+
+        CompiledTemplate(String source, Template template) {
+            this.source = source;
+            this.template = template;
+        }
+
+        boolean matches(String template) {
+            // the cached alarm contract hands out the same string instance
+            return source == template || (source != null && source.equals(template));
+        }
     }
 }
@@ -3,7 +3,13 @@ package com.autohome.frostmourne.monitor.task;
 import javax.annotation.Resource;
 
 import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.repository.IAlarmLogRepository;
+import com.autohome.frostmourne.monitor.service.core.execute.AlarmNotifyStage;
+import com.autohome.frostmourne.monitor.service.core.execute.IAlarmService;
+import com.autohome.frostmourne.monitor.service.core.schedule.JobScheduleHelper;
+import com.autohome.frostmourne.monitor.service.core.schedule.JobTriggerHelper;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -13,15 +19,38 @@ import org.springframework.stereotype.Component;
 @EnableScheduling
 public class TaskComponent {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskComponent.class);
+
     @Value("${alarm.log.reserve.days}")
     private Integer alarmLogReserviceDays;
 
     @Resource
     private IAlarmLogRepository alarmLogRepository;
 
+    @Resource
+    private AlarmNotifyStage alarmNotifyStage;
+
+    @Resource
+    private IAlarmService alarmService;
+
     @Scheduled(cron = "0 0 1 * * ?")
     public void rollingClearAlarmLog() {
         DateTime reserveLine = DateTime.now().withTimeAtStartOfDay().minusDays(alarmLogReserviceDays);
         alarmLogRepository.clearBefore(reserveLine.toDate());
     }
+
+    /**
+     * 每分钟输出一次执行链路的队列积压和计数，计数为启动以来的累计值
+     */
+    @Scheduled(cron = "30 * * * * ?")
+    public void logRuntimeStats() {
+        LOGGER.info("runtime stats. notify queue: {}, notify max lane queue: {}, notify blocked: {}",
+                alarmNotifyStage.getQueueSize(), alarmNotifyStage.getMaxLaneQueueSize(), alarmNotifyStage.getBlockedCount());
+        LOGGER.info("runtime stats. schedule deferred: {}", JobScheduleHelper.getInstance().getDeferredCount());
+        LOGGER.info("runtime stats. trigger rejected: {}, trigger coalesced: {}, trigger overflow queue: {}",
+                JobTriggerHelper.getRejectedCount(), JobTriggerHelper.getCoalescedCount(), JobTriggerHelper.getOverflowSize());
+        LOGGER.info("runtime stats. trigger batch requests: {}, trigger batch queue: {}",
+                JobTriggerHelper.getBatchRequestCount(), JobTriggerHelper.getBatchQueueSize());
+        LOGGER.info("runtime stats. alarm run coalesced: {}", alarmService.getCoalescedCount());
+    }
 }
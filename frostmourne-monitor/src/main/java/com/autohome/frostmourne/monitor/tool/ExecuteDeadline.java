@@ -0,0 +1,101 @@
+package com.autohome.frostmourne.monitor.tool;
+
+import java.util.concurrent.Callable;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * 一次监控执行的截止时间
+ * <p>
+ * 执行线程开始执行监控时设置，查询数据源时用剩余时间设置查询超时(jdbc queryTimeout、elasticsearch timeout、http call timeout)，
+ * 到期后不再等待其他线程的查询结果。没有设置截止时间的线程不受限制
+ */
+public final class ExecuteDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private ExecuteDeadline() {
+    }
+
+    /**
+     * 从现在开始的执行预算，timeoutMs小于等于0表示不限制
+     */
+    public static void start(long timeoutMs) {
+        if (timeoutMs > 0) {
+            DEADLINE.set(System.currentTimeMillis() + timeoutMs);
+        } else {
+            DEADLINE.remove();
+        }
+    }
+
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * 当前线程的截止时间，没有设置时返回Long.MAX_VALUE
+     */
+    public static long current() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? Long.MAX_VALUE : deadline;
+    }
+
+    /**
+     * 剩余时间，没有设置截止时间时返回Long.MAX_VALUE，已经到期时返回0
+     */
+    public static long remainingMs() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(deadline - System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * 剩余时间和timeoutMs中较小的一个
+     */
+    public static long remainingMs(long timeoutMs) {
+        return Math.min(remainingMs(), timeoutMs);
+    }
+
+    public static boolean isSet() {
+        return DEADLINE.get() != null;
+    }
+
+    public static boolean isExpired() {
+        return remainingMs() <= 0;
+    }
+
+    /**
+     * 已经到期时抛出UncheckedTimeoutException
+     */
+    public static void check() {
+        if (isExpired()) {
+            throw new UncheckedTimeoutException("alarm execute deadline exceeded");
+        }
+    }
+
+    /**
+     * 在其他线程中使用提交方的截止时间执行，执行完恢复线程原来的设置
+     */
+    public static <T> Callable<T> wrap(Callable<T> callable) {
+        Long deadline = DEADLINE.get();
+        return () -> {
+            Long previous = DEADLINE.get();
+            if (deadline == null) {
+                DEADLINE.remove();
+            } else {
+                DEADLINE.set(deadline);
+            }
+            try {
+                return callable.call();
+            } finally {
+                if (previous == null) {
+                    DEADLINE.remove();
+                } else {
+                    DEADLINE.set(previous);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.autohome.frostmourne.monitor.service.core.cron;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class IntervalCronScheduleTest {
+
+    @Test
+    public void tryParseTest_with_other_shape_expect_null() throws ParseException {
+        assertNull(IntervalCronSchedule.tryParse("0 0 * * * ?", new CronExpression("0 0 * * * ?")));
+        assertNull(IntervalCronSchedule.tryParse("0 */5 8-20 * * ?", new CronExpression("0 */5 8-20 * * ?")));
+    }
+
+    @Test
+    public void getFixedPeriodTest_with_step_not_divide_60_expect_zero() throws ParseException {
+        assertEquals(5000L, IntervalCronSchedule.tryParse("*/5 * * * * ?", new CronExpression("*/5 * * * * ?")).getFixedPeriod());
+        assertEquals(300000L, IntervalCronSchedule.tryParse("0 */5 * * * ?", new CronExpression("0 */5 * * * ?")).getFixedPeriod());
+        assertEquals(0L, IntervalCronSchedule.tryParse("0 */7 * * * ?", new CronExpression("0 */7 * * * ?")).getFixedPeriod());
+    }
+
+    @Test
+    public void nextValidTimeAfterTest_with_random_time_expect_same_as_cron_expression() throws ParseException {
+        String[] crons = {"*/5 * * * * ?", "0/7 * * * * ?", "0 */5 * * * ?", "0 0/13 * * * ?"};
+        Random random = new Random(1);
+        for (String cron : crons) {
+            CronExpression expression = new CronExpression(cron);
+            IntervalCronSchedule schedule = IntervalCronSchedule.tryParse(cron, new CronExpression(cron));
+            assertNotNull(schedule);
+            for (int i = 0; i < 10000; i++) {
+                long afterTime = 1650000000000L + (long) (random.nextDouble() * 400 * 86400000L);
+                long expected = expression.getNextValidTimeAfter(new Date(afterTime)).getTime();
+                assertEquals(expected, schedule.nextValidTimeAfter(afterTime), cron + " after " + afterTime);
+            }
+        }
+    }
+}
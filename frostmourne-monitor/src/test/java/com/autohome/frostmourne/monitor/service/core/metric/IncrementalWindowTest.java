@@ -0,0 +1,180 @@
+package com.autohome.frostmourne.monitor.service.core.metric;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+
+import com.autohome.frostmourne.monitor.contract.MetricContract;
+import com.autohome.frostmourne.monitor.service.core.domain.MetricData;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class IncrementalWindowTest {
+
+    private static final long MINUTE = 60000L;
+
+    private static final DateTime BASE = new DateTime(2026, 10, 17, 0, 0);
+
+    private static final IMetric METRIC = (metricContract, ruleSettings) -> null;
+
+    private final IncrementalWindow incrementalWindow = new IncrementalWindow();
+
+    @BeforeEach
+    public void setUp() {
+        incrementalWindow.setEnabled(true);
+        incrementalWindow.setResyncMinutes(10);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        incrementalWindow.setEnabled(false);
+        incrementalWindow.setResyncMinutes(10);
+    }
+
+    @Test
+    public void pullTest_with_sliding_window_expect_head_queried_and_evicted_from_slices() {
+        FakeLoader loader = new FakeLoader();
+        MetricContract metricContract = contract("sliding");
+        long fullCount = IncrementalWindow.getFullCount();
+
+        for (int minute = 0; minute < 20; minute++) {
+            loader.put(minute + 4, minute % 3 + 1);
+            loader.queries.clear();
+            assertEquals(loader.sum(minute, minute + 5), pull(metricContract, minute, minute + 5, loader).getMetricValue());
+            if (minute >= 6) {
+                // only the new minute, the evicted minute was a head slice before
+                assertEquals(1, loader.queries.size());
+                assertEquals(minute + 4, loader.queries.get(0)[0]);
+                assertEquals(minute + 5, loader.queries.get(0)[1]);
+            }
+        }
+        assertEquals(fullCount + 1, IncrementalWindow.getFullCount());
+
+        // the same window again is not queried
+        loader.queries.clear();
+        assertEquals(loader.sum(19, 24), pull(metricContract, 19, 24, loader).getMetricValue());
+        assertEquals(0, loader.queries.size());
+    }
+
+    @Test
+    public void pullTest_with_resync_after_late_data_expect_stale_slices_not_subtracted() {
+        FakeLoader loader = new FakeLoader();
+        MetricContract metricContract = contract("resync");
+        for (int minute = 0; minute < 10; minute++) {
+            loader.put(minute, 1);
+        }
+
+        pull(metricContract, 0, 5, loader);
+        pull(metricContract, 1, 6, loader);
+        pull(metricContract, 2, 7, loader);
+        // late data of minutes already stored as head slices
+        loader.put(5, 10);
+        loader.put(6, 20);
+
+        incrementalWindow.setResyncMinutes(0);
+        long fullCount = IncrementalWindow.getFullCount();
+        assertEquals(loader.sum(3, 8), pull(metricContract, 3, 8, loader).getMetricValue());
+        assertEquals(fullCount + 1, IncrementalWindow.getFullCount());
+        incrementalWindow.setResyncMinutes(10);
+
+        for (int minute = 4; minute < 12; minute++) {
+            assertEquals(loader.sum(minute, minute + 5), pull(metricContract, minute, minute + 5, loader).getMetricValue(),
+                    "window at " + minute);
+        }
+    }
+
+    @Test
+    public void pullTest_with_gap_expect_partial_head_or_full_query() {
+        FakeLoader loader = new FakeLoader();
+        MetricContract metricContract = contract("gap");
+        for (int minute = 0; minute < 40; minute++) {
+            loader.put(minute, minute);
+        }
+
+        pull(metricContract, 0, 5, loader);
+        pull(metricContract, 1, 6, loader);
+        // skipped two runs, head is three minutes and the evicted part is queried
+        loader.queries.clear();
+        assertEquals(loader.sum(4, 9), pull(metricContract, 4, 9, loader).getMetricValue());
+        assertEquals(2, loader.queries.size());
+
+        // skipped more than the window
+        long fullCount = IncrementalWindow.getFullCount();
+        assertEquals(loader.sum(20, 25), pull(metricContract, 20, 25, loader).getMetricValue());
+        assertEquals(fullCount + 1, IncrementalWindow.getFullCount());
+        assertEquals(loader.sum(21, 26), pull(metricContract, 21, 26, loader).getMetricValue());
+    }
+
+    @Test
+    public void pullTest_with_late_window_expect_queried_without_moving_state() {
+        FakeLoader loader = new FakeLoader();
+        MetricContract metricContract = contract("late");
+        for (int minute = 0; minute < 20; minute++) {
+            loader.put(minute, 2);
+        }
+        loader.put(9, 100);
+
+        for (int minute = 0; minute <= 10; minute++) {
+            pull(metricContract, minute, minute + 5, loader);
+        }
+        loader.queries.clear();
+        assertEquals(loader.sum(7, 12), pull(metricContract, 7, 12, loader).getMetricValue());
+        assertEquals(1, loader.queries.size());
+        assertEquals(7, loader.queries.get(0)[0]);
+
+        long fullCount = IncrementalWindow.getFullCount();
+        assertEquals(loader.sum(11, 16), pull(metricContract, 11, 16, loader).getMetricValue());
+        assertEquals(fullCount, IncrementalWindow.getFullCount());
+    }
+
+    private static MetricData pull(MetricContract metricContract, int startMinute, int endMinute, FakeLoader loader) {
+        return IncrementalWindow.pull(METRIC, BASE.plusMinutes(startMinute), BASE.plusMinutes(endMinute), metricContract, loader);
+    }
+
+    private static MetricContract contract(String queryString) {
+        MetricContract metricContract = new MetricContract();
+        metricContract.setDataSourceId(1L);
+        metricContract.setDataName("incremental_window_test");
+        metricContract.setAggregationType("count");
+        metricContract.setQueryString(queryString + "-" + System.nanoTime());
+        return metricContract;
+    }
+
+    /**
+     * 按分钟保存数据量的查询，记录每次查询的时间段
+     */
+    private static class FakeLoader implements BiFunction<DateTime, DateTime, MetricData> {
+
+        private final Map<Integer, Long> counts = new TreeMap<>();
+
+        private final List<int[]> queries = new ArrayList<>();
+
+        void put(int minute, long count) {
+            counts.put(minute, count);
+        }
+
+        long sum(int startMinute, int endMinute) {
+            long sum = 0;
+            for (int minute = startMinute; minute < endMinute; minute++) {
+                sum += counts.getOrDefault(minute, 0L);
+            }
+            return sum;
+        }
+
+        @Override
+        public MetricData apply(DateTime start, DateTime end) {
+            int startMinute = (int) ((start.getMillis() - BASE.getMillis()) / MINUTE);
+            int endMinute = (int) ((end.getMillis() - BASE.getMillis()) / MINUTE);
+            queries.add(new int[]{startMinute, endMinute});
+            MetricData metricData = new MetricData();
+            metricData.setMetricValue(sum(startMinute, endMinute));
+            return metricData;
+        }
+    }
+}
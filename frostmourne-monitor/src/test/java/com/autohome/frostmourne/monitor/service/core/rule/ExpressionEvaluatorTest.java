@@ -0,0 +1,64 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ExpressionEvaluatorTest {
+
+    private ExpressionEvaluator expressionEvaluator;
+
+    @BeforeEach
+    public void setUp() {
+        expressionEvaluator = new ExpressionEvaluator();
+        ReflectionTestUtils.setField(expressionEvaluator, "threads", 1);
+        ReflectionTestUtils.setField(expressionEvaluator, "timeoutMs", 200L);
+        ReflectionTestUtils.invokeMethod(expressionEvaluator, "start");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ReflectionTestUtils.invokeMethod(expressionEvaluator, "stop");
+    }
+
+    @Test
+    public void evalTest_with_context_expect_value() {
+        Map<String, Object> context = new HashMap<>();
+        context.put("NUMBER", 5);
+        assertEquals(Boolean.TRUE, expressionEvaluator.eval("NUMBER > 3", context));
+        assertEquals(Boolean.FALSE, expressionEvaluator.eval("NUMBER > 10", context));
+    }
+
+    @Test
+    public void evalTest_with_assigned_variable_expect_not_carried_to_next_eval() {
+        expressionEvaluator.eval("leaked = 1", new HashMap<>());
+        assertEquals("undefined", expressionEvaluator.eval("typeof leaked", new HashMap<>()));
+    }
+
+    @Test
+    public void evalTest_with_endless_loop_expect_timeout_and_later_evals_work() {
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> expressionEvaluator.eval("while(true){}", new HashMap<>()));
+        assertTrue(ex.getMessage().startsWith("timeout when execute js expression"));
+        assertEquals(1L, expressionEvaluator.getTimeoutCount());
+
+        // the only worker was stopped, later evals run on the thread replacing it
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> context = new HashMap<>();
+            context.put("NUMBER", i);
+            assertEquals(i + 1, ((Number) expressionEvaluator.eval("NUMBER + 1", context)).intValue());
+        }
+
+        assertThrows(RuntimeException.class, () -> expressionEvaluator.eval("while(true){}", new HashMap<>()));
+        assertEquals(2L, expressionEvaluator.getTimeoutCount());
+        assertEquals(Boolean.TRUE, expressionEvaluator.eval("1 < 2", new HashMap<>()));
+    }
+}
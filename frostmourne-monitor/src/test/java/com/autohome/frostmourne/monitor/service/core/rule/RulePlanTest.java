@@ -0,0 +1,105 @@
+package com.autohome.frostmourne.monitor.service.core.rule;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class RulePlanTest {
+
+    @Test
+    public void validateTest_with_numeric_settings_expect_threshold_and_operator_required() {
+        assertDoesNotThrow(() -> RulePlan.validate("numeric", "numeric", settings("THRESHOLD", "10", "OPERATOR", "gte")));
+
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("numeric", "numeric", settings("OPERATOR", "gte")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("numeric", "numeric", settings("THRESHOLD", "10")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("numeric", "numeric", settings("THRESHOLD", "ten", "OPERATOR", "gte")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("numeric", "numeric", settings("THRESHOLD", "10", "OPERATOR", "gt")));
+    }
+
+    @Test
+    public void validateTest_with_percentage_settings_expect_diff_threshold_checked() {
+        assertDoesNotThrow(() -> RulePlan.validate("percentage", "ring_compare",
+                settings("PERCENTAGE_THRESHOLD", "20", "COMPARE_TYPE", "increase")));
+        assertDoesNotThrow(() -> RulePlan.validate("percentage", "ring_compare",
+                settings("PERCENTAGE_THRESHOLD", "20", "COMPARE_TYPE", "both", "DIFF_COMPARE_TYPE", "abs_gte", "DIFF_VALUE_THRESHOLD", "5")));
+
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("percentage", "ring_compare",
+                settings("COMPARE_TYPE", "increase")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("percentage", "ring_compare",
+                settings("PERCENTAGE_THRESHOLD", "20")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("percentage", "ring_compare",
+                settings("PERCENTAGE_THRESHOLD", "20", "COMPARE_TYPE", "increase", "DIFF_COMPARE_TYPE", "bigger")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("percentage", "ring_compare",
+                settings("PERCENTAGE_THRESHOLD", "20", "COMPARE_TYPE", "increase", "DIFF_COMPARE_TYPE", "gte", "DIFF_VALUE_THRESHOLD", "five")));
+    }
+
+    @Test
+    public void validateTest_with_same_time_metric_expect_period_and_reference_required() {
+        Map<String, String> valid = settings("PERCENTAGE_THRESHOLD", "20", "COMPARE_TYPE", "increase",
+                "PERIOD_UNIT", "hour", "REFERENCE_TYPE_LIST", "day,week");
+        assertDoesNotThrow(() -> RulePlan.validate("percentage", "same_time", valid));
+
+        Map<String, String> noPeriod = new HashMap<>(valid);
+        noPeriod.remove("PERIOD_UNIT");
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("percentage", "same_time", noPeriod));
+        Map<String, String> badReference = new HashMap<>(valid);
+        badReference.put("REFERENCE_TYPE_LIST", "day,year");
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("percentage", "same_time", badReference));
+    }
+
+    @Test
+    public void validateTest_with_anomaly_settings_expect_defaults_and_ranges() {
+        assertDoesNotThrow(() -> RulePlan.validate("anomaly", "numeric", settings()));
+        assertDoesNotThrow(() -> RulePlan.validate("anomaly", "numeric",
+                settings("ANOMALY_SIGMA", "2.5", "ANOMALY_ALPHA", "1", "ANOMALY_SEASON", "week_hour", "COMPARE_TYPE", "decrease")));
+
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("anomaly", "numeric", settings("ANOMALY_SIGMA", "0")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("anomaly", "numeric", settings("ANOMALY_ALPHA", "0")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("anomaly", "numeric", settings("ANOMALY_ALPHA", "1.5")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("anomaly", "numeric", settings("ANOMALY_SEASON", "month")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("anomaly", "numeric", settings("ANOMALY_WARMUP", "many")));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("anomaly", "numeric", settings("COMPARE_TYPE", "up")));
+    }
+
+    @Test
+    public void validateTest_with_expression_settings_expect_expression_required() {
+        assertDoesNotThrow(() -> RulePlan.validate("expression", "numeric", settings("EXPRESSION", "NUMBER > 10")));
+
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("expression", "numeric", settings()));
+        assertThrows(IllegalArgumentException.class, () -> RulePlan.validate("expression", "numeric", null));
+    }
+
+    @Test
+    public void ofTest_with_settings_expect_parsed_once_per_map() {
+        Map<String, String> settings = settings("THRESHOLD", " 1.5 ", "OPERATOR", "lte", "ANOMALY_SEASON", "hour",
+                "REFERENCE_TYPE_LIST", "week, month");
+        RulePlan rulePlan = RulePlan.of(settings);
+
+        assertSame(rulePlan, RulePlan.of(settings));
+        assertEquals(1.5D, rulePlan.getThreshold(), 0D);
+        assertEquals(RulePlan.NumericOperator.LTE, rulePlan.getOperator());
+        assertEquals(RulePlan.SeasonType.HOUR, rulePlan.getSeasonType());
+        assertEquals(Arrays.asList(RulePlan.ReferenceType.WEEK, RulePlan.ReferenceType.MONTH), rulePlan.getReferenceTypes());
+        assertEquals(RulePlan.CompareType.BOTH, rulePlan.getCompareType(RulePlan.CompareType.BOTH));
+        assertNull(rulePlan.getDiffOperator());
+        assertEquals(0D, rulePlan.getDiffThreshold(), 0D);
+        assertEquals(10L, rulePlan.getAnomalyWarmup());
+        assertThrows(IllegalArgumentException.class, rulePlan::getPercentageThreshold);
+    }
+
+    private static Map<String, String> settings(String... keyValues) {
+        Map<String, String> settings = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            settings.put(keyValues[i], keyValues[i + 1]);
+        }
+        return settings;
+    }
+}
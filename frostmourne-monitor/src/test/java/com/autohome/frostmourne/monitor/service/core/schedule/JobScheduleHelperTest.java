@@ -0,0 +1,123 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.autohome.frostmourne.monitor.config.ScheduleConfig;
+import com.autohome.frostmourne.monitor.dao.mybatis.frostmourne.domain.Alarm;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class JobScheduleHelperTest {
+
+    @Test
+    public void getFiredWatermarkTest_with_stop_while_triggers_queued_expect_next_holder_fires_them() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Set<Long> started = ConcurrentHashMap.newKeySet();
+        scheduleConfig(alarmId -> {
+            started.add(alarmId);
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        JobScheduleHelper scheduleHelper = JobScheduleHelper.getInstance();
+        long base = scheduleHelper.getFiredWatermark() - 100_000;
+        // 10 core threads of the fast pool are busy, the rest stay in the pool queue
+        int total = 15;
+        int running = 10;
+        JobTriggerHelper.toStart();
+        try {
+            for (long alarmId = 1; alarmId <= total; alarmId++) {
+                JobTriggerHelper.trigger(alarmId, fireTime(base, alarmId));
+            }
+            long waitUntil = System.currentTimeMillis() + 5000;
+            while (started.size() < running && System.currentTimeMillis() < waitUntil) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertEquals(running, started.size());
+            assertEquals(fireTime(base, running + 1) - 1, scheduleHelper.getFiredWatermark());
+        } finally {
+            // running ones never finish in time, queued ones never start
+            JobTriggerHelper.toStop(200);
+            release.countDown();
+        }
+
+        // written to fired_until on release, the next holder recovers from trigger_last_time after it
+        long firedUntil = scheduleHelper.getFiredWatermark();
+        assertEquals(fireTime(base, running + 1) - 1, firedUntil);
+        for (long alarmId = 1; alarmId <= total; alarmId++) {
+            Alarm alarm = new Alarm();
+            alarm.setId(alarmId);
+            alarm.setCron("0 * * * * ?");
+            alarm.setTriggerLastTime(fireTime(base, alarmId));
+            if (alarmId <= running) {
+                assertFalse(scheduleHelper.recover(alarm, firedUntil), "started alarm " + alarmId);
+            } else {
+                assertTrue(scheduleHelper.recover(alarm, firedUntil), "queued alarm " + alarmId);
+            }
+        }
+    }
+
+    @Test
+    public void getFiredWatermarkTest_with_pool_freed_during_stop_expect_queued_triggers_drained() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Set<Long> started = ConcurrentHashMap.newKeySet();
+        scheduleConfig(alarmId -> {
+            started.add(alarmId);
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        JobScheduleHelper scheduleHelper = JobScheduleHelper.getInstance();
+        JobTriggerHelper.toStart();
+        long wheelTime = scheduleHelper.getFiredWatermark();
+        long base = wheelTime - 100_000;
+        int total = 15;
+        for (long alarmId = 1; alarmId <= total; alarmId++) {
+            JobTriggerHelper.trigger(alarmId, fireTime(base, alarmId));
+        }
+        Thread releaseThread = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(300);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+        releaseThread.start();
+        JobTriggerHelper.toStop(5000);
+        releaseThread.join();
+
+        // fires after stop began are not started and hold the watermark
+        assertEquals(total, started.size());
+        assertEquals(wheelTime, scheduleHelper.getFiredWatermark());
+    }
+
+    private static long fireTime(long base, long alarmId) {
+        return base + alarmId * 1000;
+    }
+
+    private static void scheduleConfig(ILocalTriggerService localTriggerService) throws Exception {
+        ScheduleConfig scheduleConfig = new ScheduleConfig();
+        ReflectionTestUtils.setField(scheduleConfig, "scheduleEnabled", false);
+        ReflectionTestUtils.setField(scheduleConfig, "triggerPoolFastMax", 200);
+        ReflectionTestUtils.setField(scheduleConfig, "triggerPoolSlowMax", 200);
+        ReflectionTestUtils.setField(scheduleConfig, "spreadMaxSeconds", 0);
+        ReflectionTestUtils.setField(scheduleConfig, "triggerLocal", true);
+        ReflectionTestUtils.setField(scheduleConfig, "triggerRemoteBatchSize", 0);
+        ReflectionTestUtils.setField(scheduleConfig, "localTriggerService", localTriggerService);
+        scheduleConfig.afterPropertiesSet();
+    }
+}
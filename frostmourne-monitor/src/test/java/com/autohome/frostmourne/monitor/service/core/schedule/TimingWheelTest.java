@@ -0,0 +1,85 @@
+package com.autohome.frostmourne.monitor.service.core.schedule;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void advanceTest_with_entry_in_first_level_expect_fire_at_its_tick() {
+        TimingWheel timingWheel = new TimingWheel(100, 10, 0);
+        assertTrue(timingWheel.add(1L, 350));
+        List<Long> fired = new ArrayList<>();
+
+        timingWheel.advance(299, fired::add);
+        assertTrue(fired.isEmpty());
+
+        timingWheel.advance(300, fired::add);
+        assertEquals(1, fired.size());
+        assertEquals(1L, fired.get(0).longValue());
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void advanceTest_with_entry_beyond_first_level_expect_cascade_and_fire() {
+        TimingWheel timingWheel = new TimingWheel(100, 10, 0);
+        assertTrue(timingWheel.add(1L, 12_345));
+        assertTrue(timingWheel.add(2L, 250_000));
+        List<Long> fired = new ArrayList<>();
+
+        timingWheel.advance(12_299, fired::add);
+        assertTrue(fired.isEmpty());
+        timingWheel.advance(12_300, fired::add);
+        assertEquals(1, fired.size());
+        assertEquals(1L, fired.get(0).longValue());
+
+        timingWheel.advance(249_999, fired::add);
+        assertEquals(1, fired.size());
+        timingWheel.advance(250_000, fired::add);
+        assertEquals(2, fired.size());
+        assertEquals(2L, fired.get(1).longValue());
+    }
+
+    @Test
+    public void addTest_with_expired_time_expect_rejected() {
+        TimingWheel timingWheel = new TimingWheel(100, 10, 1000);
+        assertFalse(timingWheel.add(1L, 1050));
+        assertFalse(timingWheel.add(1L, 500));
+        assertTrue(timingWheel.add(1L, 1100));
+    }
+
+    @Test
+    public void advanceTest_with_many_entries_expect_none_lost() {
+        TimingWheel timingWheel = new TimingWheel(100, 100, 0);
+        int total = 200_000;
+        for (int i = 0; i < total; i++) {
+            assertTrue(timingWheel.add(i, 100 + (i % 60_000)));
+        }
+        assertEquals(total, timingWheel.size());
+        long[] count = new long[1];
+        for (long now = 0; now <= 61_000; now += 700) {
+            timingWheel.advance(now, id -> count[0]++);
+        }
+        assertEquals(total, count[0]);
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void advanceWithExpireTest_with_cascaded_entry_expect_original_trigger_time() {
+        TimingWheel timingWheel = new TimingWheel(100, 10, 0);
+        assertTrue(timingWheel.add(1L, 350));
+        assertTrue(timingWheel.add(2L, 12_345));
+        List<Long> expires = new ArrayList<>();
+
+        timingWheel.advanceWithExpire(12_300, (id, expireMs) -> expires.add(expireMs));
+        assertEquals(2, expires.size());
+        assertEquals(350L, expires.get(0).longValue());
+        assertEquals(12_345L, expires.get(1).longValue());
+    }
+}